@@ -0,0 +1,128 @@
+package com.emilyfooe;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * Generates synthetic address books for benchmarks.
+ * Contacts are deterministic for a given seed, so runs are comparable.
+ * @author Emily Fooe
+ *
+ */
+public class AddressBookGenerator {
+    private static final String[] COUNTRIES = {"Germany", "Mexico", "UK", "Sweden", "France", "Spain", "Canada", "USA"};
+    private static final String[] CITIES = {"Berlin", "México D.F.", "London", "Luleå", "Strasbourg", "Madrid", "Montréal", "Seattle"};
+    private static final String[] TITLES = {"Owner", "Sales Representative", "Order Administrator", "Marketing Manager"};
+    private static final String[] UNICODE_WORDS = {"Ünïcödé", "東京商事", "Ελληνικά", "Żółć", "שלום", "данные", "😀🚀", "Ærøskøbing"};
+
+    /**
+     * Which optional fields (region, postal code, fax) contacts have
+     */
+    public enum OptionalFields {
+        PRESENT, ABSENT, MIXED
+    }
+
+    private final long seed;
+    private final OptionalFields optionalFields;
+    private final boolean unicode;
+
+    /**
+     * @param seed seed for the field values
+     * @param optionalFields which optional fields to include
+     * @param unicode whether to fill text fields with non-ASCII text, including surrogate pairs
+     */
+    public AddressBookGenerator(long seed, OptionalFields optionalFields, boolean unicode){
+        this.seed = seed;
+        this.optionalFields = optionalFields;
+        this.unicode = unicode;
+    }
+
+    /**
+     * Generates the contact at a given position; the same index always yields the same contact
+     * @param index position in the address book, also used for the unique CustomerID
+     */
+    public Contact contact(int index){
+        Random random = new Random(seed * 31 + index);
+        Contact.Builder builder = new Contact.Builder(String.format("C%08d", index))
+                .companyName(text(random, "Company") + " " + index)
+                .contactName(text(random, "Contact") + " " + random.nextInt(100000))
+                .contactTitle(TITLES[random.nextInt(TITLES.length)])
+                .address(random.nextInt(10000) + " " + text(random, "Street"))
+                .city(CITIES[random.nextInt(CITIES.length)])
+                .email("contact" + index + "@example.com")
+                .country(COUNTRIES[random.nextInt(COUNTRIES.length)])
+                .phone(phone(random));
+        // Builder defaults to "", so absent fields must be set to null to be omitted
+        builder.region(hasOptional(random) ? "R" + random.nextInt(50) : null)
+                .postalCode(hasOptional(random) ? String.format("%05d", random.nextInt(100000)) : null)
+                .fax(hasOptional(random) ? phone(random) : null);
+        return builder.build();
+    }
+
+    /**
+     * Generates contacts [0, count) into an array
+     */
+    public Contact[] contacts(int count){
+        Contact[] contacts = new Contact[count];
+        for (int i = 0; i < count; i++){
+            contacts[i] = contact(i);
+        }
+        return contacts;
+    }
+
+    /**
+     * Streams contacts [0, count) into an address book file, without holding them in memory
+     * @param file file to write to
+     * @param format format of the file
+     * @param count number of contacts
+     */
+    public void write(Path file, ContactFormat format, int count) throws IOException {
+        try (ContactWriter writer = format.newWriter(
+                new BufferedOutputStream(Files.newOutputStream(file), 64 * 1024), true)) {
+            for (int i = 0; i < count; i++){
+                writer.write(contact(i));
+            }
+        }
+    }
+
+    private boolean hasOptional(Random random){
+        switch (optionalFields){
+            case PRESENT:
+                return true;
+            case ABSENT:
+                return false;
+            default:
+                return random.nextBoolean();
+        }
+    }
+
+    private static String phone(Random random){
+        return String.format("(%03d) %03d-%04d", random.nextInt(1000), random.nextInt(1000), random.nextInt(10000));
+    }
+
+    private String text(Random random, String ascii){
+        if (!unicode){
+            return ascii;
+        }
+        return UNICODE_WORDS[random.nextInt(UNICODE_WORDS.length)] + " " + UNICODE_WORDS[random.nextInt(UNICODE_WORDS.length)];
+    }
+
+    /**
+     * Writes a generated address book, e.g. {@code ab.xml 1000000 mixed unicode}
+     * @param args file, contact count, and optionally present|absent|mixed and unicode
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2){
+            System.err.println("Usage: AddressBookGenerator <file.xml|file.json> <contacts> [present|absent|mixed] [unicode]");
+            System.exit(2);
+        }
+        Path file = Paths.get(args[0]);
+        OptionalFields optional = args.length > 2 ? OptionalFields.valueOf(args[2].toUpperCase()) : OptionalFields.MIXED;
+        boolean unicode = args.length > 3 && args[3].equalsIgnoreCase("unicode");
+        new AddressBookGenerator(42, optional, unicode).write(file, ContactFormat.forFile(file), Integer.parseInt(args[1]));
+    }
+}
@@ -0,0 +1,83 @@
+package com.emilyfooe;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * A generated address book shared by the benchmarks of one trial, in both formats.
+ * Sizes and content are chosen with JMH parameters, e.g.
+ * {@code -p contacts=10000000 -p optionalFields=ABSENT -p unicode=true}.
+ * @author Emily Fooe
+ *
+ */
+@State(Scope.Benchmark)
+public class AddressBookState {
+    @Param({"1000", "100000"})
+    public int contacts;
+
+    @Param({"MIXED"})
+    public AddressBookGenerator.OptionalFields optionalFields;
+
+    @Param({"false"})
+    public boolean unicode;
+
+    Path directory;
+    Path xmlFile;
+    Path jsonFile;
+    Path schemaFile;
+    // Scratch outputs, overwritten by every invocation
+    Path xmlOutput;
+    Path jsonOutput;
+
+    @Setup(Level.Trial)
+    public void generate() throws IOException {
+        directory = Files.createTempDirectory("addressbook-bench");
+        xmlFile = directory.resolve("input.xml");
+        jsonFile = directory.resolve("input.json");
+        xmlOutput = directory.resolve("output.xml");
+        jsonOutput = directory.resolve("output.json");
+        schemaFile = directory.resolve("contact.xsd");
+
+        AddressBookGenerator generator = new AddressBookGenerator(42, optionalFields, unicode);
+        generator.write(xmlFile, ContactFormat.XML, contacts);
+        generator.write(jsonFile, ContactFormat.JSON, contacts);
+        try (InputStream schema = AddressBookState.class.getResourceAsStream("/contact.xsd")) {
+            Files.copy(schema, schemaFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void delete() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    /**
+     * Contacts processed by a benchmark; JMH reports them normalized like the
+     * primary result, i.e. contacts per second or time per contact
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+        public long contacts;
+
+        @Setup(Level.Iteration)
+        public void reset(){
+            contacts = 0;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.emilyfooe;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-contact cost of mapping a DOM &lt;Contact&gt; element to a Contact,
+ * comparing the original getElementsByTagName lookups with the ContactField child walk.
+ * @author Emily Fooe
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ContactMappingBenchmark {
+    private static final int CONTACTS = 1000;
+
+    private Element[] contacts;
+
+    @Setup
+    public void setup() throws ParserConfigurationException {
+        Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+        Element root = doc.createElement(ContactHelper.ADDRESS_BOOK);
+        doc.appendChild(root);
+        for (int i = 0; i < CONTACTS; i++){
+            Contact.Builder builder = new Contact.Builder(String.format("C%05d", i))
+                    .companyName("Company " + i)
+                    .contactName("Contact " + i)
+                    .contactTitle("Owner")
+                    .address(i + " Main St.")
+                    .city("Berlin")
+                    .email("contact" + i + "@example.com")
+                    .country("Germany")
+                    .phone("030-" + i);
+            // Alternate which optional fields are present
+            builder.region(i % 2 == 0 ? "BE" : null)
+                    .postalCode(i % 3 == 0 ? null : "12209")
+                    .fax(i % 4 == 0 ? "030-0076545" : null);
+            ContactHelper.contactToXmlNode(doc, root, builder.build());
+        }
+        NodeList nodes = doc.getElementsByTagName(ContactHelper.CONTACT);
+        contacts = new Element[nodes.getLength()];
+        for (int i = 0; i < contacts.length; i++){
+            contacts[i] = (Element) nodes.item(i);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CONTACTS)
+    public void childWalk(Blackhole blackhole){
+        for (Element contact : contacts){
+            blackhole.consume(ContactHelper.xmlNodeToContact(contact));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CONTACTS)
+    public void getElementsByTagName(Blackhole blackhole){
+        for (Element contact : contacts){
+            blackhole.consume(legacyXmlNodeToContact(contact));
+        }
+    }
+
+    // The mapping xmlNodeToContact used before the ContactField table, kept as a baseline
+    private static Contact legacyXmlNodeToContact(Element node){
+        String customerId = text(node, ContactHelper.CUSTOMER_ID);
+        String companyName = text(node, ContactHelper.COMPANY_NAME);
+        String contactName = text(node, ContactHelper.CONTACT_NAME);
+        String contactTitle = text(node, ContactHelper.CONTACT_TITLE);
+        String address = text(node, ContactHelper.ADDRESS);
+        String city = text(node, ContactHelper.CITY);
+        String email = text(node, ContactHelper.EMAIL);
+        String region = null;
+        if (node.getElementsByTagName(ContactHelper.REGION).item(0) != null){
+            region = text(node, ContactHelper.REGION);
+        }
+        String postalCode = null;
+        if (node.getElementsByTagName(ContactHelper.POSTAL_CODE).item(0) != null){
+            postalCode = text(node, ContactHelper.POSTAL_CODE);
+        }
+        String country = text(node, ContactHelper.COUNTRY);
+        String phone = text(node, ContactHelper.PHONE);
+        String fax = null;
+        if (node.getElementsByTagName(ContactHelper.FAX).item(0) != null){
+            fax = text(node, ContactHelper.FAX);
+        }
+        return (new Contact.Builder(customerId)
+                .companyName(companyName)
+                .contactName(contactName)
+                .contactTitle(contactTitle)
+                .address(address)
+                .city(city)
+                .email(email)
+                .region(region)
+                .postalCode(postalCode)
+                .country(country)
+                .phone(phone)
+                .fax(fax)).build();
+    }
+
+    private static String text(Element node, String tag){
+        Node element = node.getElementsByTagName(tag).item(0);
+        return element.getChildNodes().item(0).getNodeValue();
+    }
+}
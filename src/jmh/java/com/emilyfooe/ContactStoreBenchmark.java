@@ -0,0 +1,127 @@
+package com.emilyfooe;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of holding an address book in memory as Contact objects against a ContactStore,
+ * on and off the heap: loading it, and reading a field of every contact back.
+ * Run with {@code -prof gc} to compare allocation and GC time.
+ * @author Emily Fooe
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+public class ContactStoreBenchmark {
+    private List<Contact> list;
+    private ContactStore heapStore;
+    private ContactStore directStore;
+
+    @Setup(Level.Trial)
+    public void setup(AddressBookState book) throws IOException {
+        list = loadList(book);
+        heapStore = loadStore(book, false);
+        directStore = loadStore(book, true);
+    }
+
+    @TearDown(Level.Trial)
+    public void release(){
+        heapStore.close();
+        directStore.close();
+    }
+
+    @Benchmark
+    public List<Contact> loadContacts(AddressBookState book, AddressBookState.Counters counters)
+            throws IOException {
+        List<Contact> contacts = loadList(book);
+        counters.contacts += contacts.size();
+        return contacts;
+    }
+
+    @Benchmark
+    public long loadHeapStore(AddressBookState book, AddressBookState.Counters counters)
+            throws IOException {
+        try (ContactStore store = loadStore(book, false)) {
+            counters.contacts += store.size();
+            return store.getBytesUsed();
+        }
+    }
+
+    @Benchmark
+    public long loadDirectStore(AddressBookState book, AddressBookState.Counters counters)
+            throws IOException {
+        try (ContactStore store = loadStore(book, true)) {
+            counters.contacts += store.size();
+            return store.getBytesUsed();
+        }
+    }
+
+    @Benchmark
+    public long scanContacts(AddressBookState.Counters counters){
+        long length = 0;
+        for (Contact contact : list){
+            length += contact.getCity().length();
+        }
+        counters.contacts += list.size();
+        return length;
+    }
+
+    @Benchmark
+    public long scanHeapStore(AddressBookState.Counters counters){
+        return scan(heapStore, counters);
+    }
+
+    @Benchmark
+    public long scanDirectStore(AddressBookState.Counters counters){
+        return scan(directStore, counters);
+    }
+
+    private static long scan(ContactStore store, AddressBookState.Counters counters){
+        ContactStore.View view = store.view();
+        long length = 0;
+        for (int i = 0; i < store.size(); i++){
+            view.moveTo(i);
+            length += view.getCity().length();
+        }
+        counters.contacts += store.size();
+        return length;
+    }
+
+    private static List<Contact> loadList(AddressBookState book) throws IOException {
+        List<Contact> contacts = new ArrayList<>();
+        try (ContactReader reader = ContactFormat.JSON.newReader(MappedInputStream.open(book.jsonFile))) {
+            Contact contact;
+            while ((contact = reader.read()) != null){
+                contacts.add(contact);
+            }
+        }
+        return contacts;
+    }
+
+    private static ContactStore loadStore(AddressBookState book, boolean direct) throws IOException {
+        try (InputStream input = MappedInputStream.open(book.jsonFile);
+             ContactReader reader = ContactFormat.JSON.newReader(input)) {
+            return ContactStore.load(reader, direct);
+        }
+    }
+}
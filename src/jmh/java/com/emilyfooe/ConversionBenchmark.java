@@ -0,0 +1,133 @@
+package com.emilyfooe;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput and latency of every conversion path, per address book and per contact.
+ * The DOM and Gson tree paths are the original implementations; the streaming
+ * paths are what the menu and batch commands use today.
+ * Allocation rates are reported with {@code -prof gc}, which "gradle jmh" enables.
+ * @author Emily Fooe
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+public class ConversionBenchmark {
+    private Contact[] contacts;
+    private JsonArray jsonArray;
+
+    @Setup(Level.Trial)
+    public void setup(AddressBookState book) throws IOException, ParserConfigurationException, SAXException {
+        contacts = ContactHelper.xmlFileToContactArray(book.xmlFile.toFile());
+        jsonArray = ContactHelper.contactArrayToJsonArray(contacts);
+    }
+
+    @Benchmark
+    public Contact[] xmlFileToContactArray(AddressBookState book, AddressBookState.Counters counters)
+            throws IOException, ParserConfigurationException, SAXException {
+        Contact[] result = ContactHelper.xmlFileToContactArray(book.xmlFile.toFile());
+        counters.contacts += result.length;
+        return result;
+    }
+
+    @Benchmark
+    public Contact[] jsonFileToContactArray(AddressBookState book, AddressBookState.Counters counters)
+            throws IOException {
+        Contact[] result = ContactHelper.jsonFileToContactArray(book.jsonFile.toFile());
+        counters.contacts += result.length;
+        return result;
+    }
+
+    @Benchmark
+    public JsonArray contactArrayToJsonArray(AddressBookState.Counters counters){
+        counters.contacts += contacts.length;
+        return ContactHelper.contactArrayToJsonArray(contacts);
+    }
+
+    // The original Main.writeJson: pretty-print a JsonArray tree with a new Gson
+    @Benchmark
+    public void writeJsonTree(AddressBookState book, AddressBookState.Counters counters) throws IOException {
+        Gson gson = new GsonBuilder().setPrettyPrinting().create();
+        try (Writer writer = new FileWriter(book.jsonOutput.toFile())) {
+            gson.toJson(jsonArray, writer);
+        }
+        counters.contacts += contacts.length;
+    }
+
+    // The original Main.writeXml: build a DOM and serialize it with an indenting Transformer
+    @Benchmark
+    public void writeXmlDom(AddressBookState book, AddressBookState.Counters counters)
+            throws IOException, ParserConfigurationException, TransformerException {
+        Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+        Element root = doc.createElement(ContactHelper.ADDRESS_BOOK);
+        doc.appendChild(root);
+        for (Contact contact : contacts){
+            ContactHelper.contactToXmlNode(doc, root, contact);
+        }
+        Transformer transformer = TransformerFactory.newInstance().newTransformer();
+        transformer.setOutputProperty(OutputKeys.INDENT, "yes");
+        transformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "2");
+        try (OutputStream output = Files.newOutputStream(book.xmlOutput)) {
+            transformer.transform(new DOMSource(doc), new StreamResult(output));
+        }
+        counters.contacts += contacts.length;
+    }
+
+    @Benchmark
+    public long streamXmlToJson(AddressBookState book, AddressBookState.Counters counters) throws IOException {
+        long converted = StreamingConverter.xmlFileToJsonFile(book.xmlFile.toFile(), book.jsonOutput.toFile());
+        counters.contacts += converted;
+        return converted;
+    }
+
+    @Benchmark
+    public long streamXmlToCompactJson(AddressBookState book, AddressBookState.Counters counters)
+            throws IOException, SAXException {
+        long converted = StreamingConverter.convertFile(book.xmlFile, book.jsonOutput, ContactFormat.JSON, false,
+                null, null, ConversionListener.NONE);
+        counters.contacts += converted;
+        return converted;
+    }
+
+    @Benchmark
+    public long streamJsonToXml(AddressBookState book, AddressBookState.Counters counters) throws IOException {
+        long converted = StreamingConverter.jsonFileToXmlFile(book.jsonFile.toFile(), book.xmlOutput.toFile(), true);
+        counters.contacts += converted;
+        return converted;
+    }
+}
@@ -0,0 +1,110 @@
+package com.emilyfooe;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parse and write throughput and output size of each address book format on the same contacts.
+ * Every format is written compact, the way machines exchange address books; the size of a
+ * written address book is reported as the "bytes" counter of the write benchmark.
+ * @author Emily Fooe
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+public class FormatBenchmark {
+    @Param({"XML", "JSON", "BINARY"})
+    public ContactFormat format;
+
+    private List<Contact> contacts;
+    private Path file;
+
+    @Setup(Level.Trial)
+    public void setup(AddressBookState book) throws IOException {
+        contacts = new ArrayList<>();
+        try (ContactReader reader = ContactFormat.JSON.newReader(MappedInputStream.open(book.jsonFile))) {
+            Contact contact;
+            while ((contact = reader.read()) != null){
+                contacts.add(contact);
+            }
+        }
+        file = book.directory.resolve("compact" + format.getExtension());
+        try (ContactWriter writer = format.newWriter(
+                new BufferedOutputStream(Files.newOutputStream(file), 64 * 1024), false)) {
+            for (Contact contact : contacts){
+                writer.write(contact);
+            }
+        }
+    }
+
+    @Benchmark
+    public long read(AddressBookState.Counters counters, Blackhole blackhole) throws IOException {
+        long read = 0;
+        try (ContactReader reader = format.newReader(MappedInputStream.open(file))) {
+            Contact contact;
+            while ((contact = reader.read()) != null){
+                blackhole.consume(contact);
+                read++;
+            }
+        }
+        counters.contacts += read;
+        return read;
+    }
+
+    @Benchmark
+    public long write(AddressBookState.Counters counters, Size size) throws IOException {
+        CountingOutputStream out = new CountingOutputStream(new Discard());
+        try (ContactWriter writer = format.newWriter(new BufferedOutputStream(out, 64 * 1024), false)) {
+            for (Contact contact : contacts){
+                writer.write(contact);
+            }
+        }
+        counters.contacts += contacts.size();
+        size.bytes = out.getCount();
+        return size.bytes;
+    }
+
+    /**
+     * Size of the address book written last, which is the same every time
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Size {
+        public long bytes;
+    }
+
+    private static class Discard extends OutputStream {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) {
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.emilyfooe;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of reading contacts from a memory-mapped input against streaming it
+ * through a large buffer and through the 64 KB buffer used before mapping.
+ * Contacts are parsed but not written, so only input costs are measured.
+ * @author Emily Fooe
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+public class InputBenchmark {
+    @Benchmark
+    public long readXmlBuffered(AddressBookState book, AddressBookState.Counters counters, Blackhole blackhole)
+            throws IOException {
+        return read(ContactFormat.XML, new BufferedInputStream(Files.newInputStream(book.xmlFile), 64 * 1024),
+                counters, blackhole);
+    }
+
+    @Benchmark
+    public long readXmlStreamed(AddressBookState book, AddressBookState.Counters counters, Blackhole blackhole)
+            throws IOException {
+        return read(ContactFormat.XML, MappedInputStream.openStreamed(book.xmlFile), counters, blackhole);
+    }
+
+    @Benchmark
+    public long readXmlMapped(AddressBookState book, AddressBookState.Counters counters, Blackhole blackhole)
+            throws IOException {
+        return read(ContactFormat.XML, MappedInputStream.open(book.xmlFile), counters, blackhole);
+    }
+
+    @Benchmark
+    public long readJsonBuffered(AddressBookState book, AddressBookState.Counters counters, Blackhole blackhole)
+            throws IOException {
+        return read(ContactFormat.JSON, new BufferedInputStream(Files.newInputStream(book.jsonFile), 64 * 1024),
+                counters, blackhole);
+    }
+
+    @Benchmark
+    public long readJsonStreamed(AddressBookState book, AddressBookState.Counters counters, Blackhole blackhole)
+            throws IOException {
+        return read(ContactFormat.JSON, MappedInputStream.openStreamed(book.jsonFile), counters, blackhole);
+    }
+
+    @Benchmark
+    public long readJsonMapped(AddressBookState book, AddressBookState.Counters counters, Blackhole blackhole)
+            throws IOException {
+        return read(ContactFormat.JSON, MappedInputStream.open(book.jsonFile), counters, blackhole);
+    }
+
+    private static long read(ContactFormat format, InputStream input, AddressBookState.Counters counters,
+                             Blackhole blackhole) throws IOException {
+        long count = 0;
+        try (ContactReader reader = format.newReader(input)) {
+            Contact contact;
+            while ((contact = reader.read()) != null){
+                blackhole.consume(contact);
+                count++;
+            }
+        }
+        counters.contacts += count;
+        return count;
+    }
+}
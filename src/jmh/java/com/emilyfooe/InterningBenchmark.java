@@ -0,0 +1,60 @@
+package com.emilyfooe;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of loading an address book into memory with and without interning field values.
+ * A fresh interner is used per load, so every dictionary starts empty.
+ * Run with {@code -prof gc} to compare allocation and GC time.
+ * @author Emily Fooe
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+public class InterningBenchmark {
+    /** Fields to intern, as accepted by {@link FieldInterner#forNames} */
+    @Param({"none", "default"})
+    public String intern;
+
+    @Benchmark
+    public List<Contact> loadXml(AddressBookState book, AddressBookState.Counters counters) throws IOException {
+        return load(ContactFormat.XML, book.xmlFile, counters);
+    }
+
+    @Benchmark
+    public List<Contact> loadJson(AddressBookState book, AddressBookState.Counters counters) throws IOException {
+        return load(ContactFormat.JSON, book.jsonFile, counters);
+    }
+
+    private List<Contact> load(ContactFormat format, Path file, AddressBookState.Counters counters)
+            throws IOException {
+        List<Contact> contacts = new ArrayList<>();
+        try (ContactReader reader = format.newReader(MappedInputStream.open(file), FieldInterner.forNames(intern))) {
+            Contact contact;
+            while ((contact = reader.read()) != null){
+                contacts.add(contact);
+            }
+        }
+        counters.contacts += contacts.size();
+        return contacts;
+    }
+}
@@ -0,0 +1,56 @@
+package com.emilyfooe;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xml.sax.SAXException;
+
+import javax.xml.XMLConstants;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.SchemaFactory;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of schema validation: compiling the schema per file as validateSchema
+ * originally did, reusing the cached schema, and validating during conversion.
+ * @author Emily Fooe
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+public class ValidationBenchmark {
+    @Benchmark
+    public void validateCompilingSchema(AddressBookState book, AddressBookState.Counters counters)
+            throws IOException, SAXException {
+        SchemaFactory factory = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
+        factory.newSchema(book.schemaFile.toFile()).newValidator().validate(new StreamSource(book.xmlFile.toFile()));
+        counters.contacts += book.contacts;
+    }
+
+    @Benchmark
+    public void validateSchema(AddressBookState book, AddressBookState.Counters counters)
+            throws IOException, SAXException {
+        Main.validateSchema(book.schemaFile.toFile(), book.xmlFile.toFile());
+        counters.contacts += book.contacts;
+    }
+
+    @Benchmark
+    public long validateWhileConverting(AddressBookState book, AddressBookState.Counters counters)
+            throws IOException, SAXException {
+        long converted = StreamingConverter.xmlFileToJsonFile(book.xmlFile.toFile(), book.jsonOutput.toFile(),
+                SchemaValidator.getSchema(book.schemaFile), null);
+        counters.contacts += converted;
+        return converted;
+    }
+}
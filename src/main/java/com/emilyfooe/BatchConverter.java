@@ -0,0 +1,416 @@
+package com.emilyfooe;
+
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+
+import javax.xml.validation.Schema;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Converts every address book in a directory without user interaction, e.g.
+ * {@code convert --to json --in input/ --out output/ --threads 4}.
+ * Files are converted concurrently on a fixed-size pool; existing outputs are overwritten.
+ * Inputs that map to the same output, e.g. ab.xml and ab.xml.gz, fail without being converted.
+ * With {@code --split}, files are converted one at a time and each is split into
+ * chunks converted concurrently instead, which suits a few very large files.
+ * With {@code --validate}, XML inputs are validated against {@code --schema} while
+ * they are converted, stopping at the first error unless {@code --collect-errors} is given.
+ * With {@code --progress}, a combined progress bar is drawn on standard error.
+ * With {@code --incremental}, inputs whose content is unchanged since they were last
+ * converted into the output directory are skipped; see {@link ConversionManifest}.
+ * With {@code --compact}, output is written without indentation for machine consumers.
+ * Gzipped inputs (e.g. ab.xml.gz) are read directly; with {@code --gzip}, outputs are gzipped
+ * too, and {@code --compress-threads} compresses each output in parallel blocks.
+ * With {@code --dedup <policy>}, contacts sharing a CustomerID are rejected, or resolved
+ * to one by keeping the first or last, or merging them; see {@link Deduplicator}.
+ * Duplicates found are reported in "&lt;output&gt;.duplicates.tsv".
+ * With {@code --index}, a {@link ContactLookup} is written alongside each output for {@code query}.
+ * With {@code --shard-contacts <n>}, {@code --shard-size <MB>} or {@code --shards <n>}, each output is
+ * split into numbered shards bounded by contacts or bytes, or spread by CustomerID hash, which are
+ * written on the converter threads and listed in "&lt;output&gt;.shards.tsv"; see {@link Sharding}.
+ * Outputs are written to temporary files and renamed into place once complete, so an interrupted
+ * or failed conversion never leaves a truncated output and keeps any earlier one.
+ * With {@code --resume}, each output is checkpointed every {@code --checkpoint-interval <MB>} of input,
+ * and a conversion interrupted part way resumes from its last checkpoint; see {@link ResumableConverter}.
+ * @author Emily Fooe
+ *
+ */
+public class BatchConverter {
+    public static final int EXIT_OK = 0;
+    public static final int EXIT_FAILED = 1;
+
+    /**
+     * Runs the convert command
+     * @param options parsed command-line options
+     * @return process exit code, nonzero if any file failed
+     */
+    public static int run(CommandOptions options) throws IOException, SAXException, InterruptedException {
+        ContactFormat target = ContactFormat.forName(options.require("to"));
+        Path inputDir = Paths.get(options.get("in", "input"));
+        Path outputDir = Paths.get(options.get("out", "output"));
+        int threads = options.getInt("threads", Runtime.getRuntime().availableProcessors());
+        if (threads < 1){
+            throw new IllegalArgumentException("Option --threads must be at least 1");
+        }
+
+        boolean split = options.has("split");
+        boolean pretty = !options.has("compact");
+        boolean gzip = options.has("gzip");
+        int compressThreads = options.getInt("compress-threads", 1);
+        if (compressThreads < 1){
+            throw new IllegalArgumentException("Option --compress-threads must be at least 1");
+        }
+        Schema schema = null;
+        if (options.has("validate")){
+            if (split){
+                throw new IllegalArgumentException("Option --validate cannot be combined with --split");
+            }
+            schema = SchemaValidator.getSchema(Paths.get(options.get("schema", "schemas/contact.xsd")));
+        }
+        boolean collectErrors = options.has("collect-errors");
+        DuplicatePolicy dedup = null;
+        if (options.has("dedup")){
+            if (split || schema != null){
+                throw new IllegalArgumentException("Option --dedup cannot be combined with --split or --validate");
+            }
+            dedup = DuplicatePolicy.forName(options.get("dedup", null));
+        }
+        long dedupMemory = options.getInt("dedup-memory", (int) (Deduplicator.DEFAULT_MEMORY >> 20)) * 1024L * 1024;
+        if (dedupMemory < 1){
+            throw new IllegalArgumentException("Option --dedup-memory must be at least 1");
+        }
+        boolean index = options.has("index");
+        if (index && (split || gzip)){
+            throw new IllegalArgumentException("Option --index cannot be combined with --split or --gzip");
+        }
+        if (index && !target.isText()){
+            throw new IllegalArgumentException(target + " address books cannot be indexed");
+        }
+        ExecutorService shardWriters = null;
+        Sharding sharding = null;
+        int shardOptions = (options.has("shard-contacts") ? 1 : 0) + (options.has("shard-size") ? 1 : 0)
+                + (options.has("shards") ? 1 : 0);
+        if (shardOptions > 1){
+            throw new IllegalArgumentException("Only one of --shard-contacts, --shard-size and --shards may be given");
+        }
+        if (shardOptions == 1){
+            if (split || index || options.has("incremental")){
+                throw new IllegalArgumentException("Sharding cannot be combined with --split, --index or --incremental");
+            }
+            shardWriters = Executors.newFixedThreadPool(threads);
+            if (options.has("shard-contacts")){
+                sharding = Sharding.byCount(options.getInt("shard-contacts", 0), shardWriters);
+            } else if (options.has("shard-size")){
+                sharding = Sharding.bySize(options.getInt("shard-size", 0) * 1024L * 1024, shardWriters);
+            } else {
+                sharding = Sharding.byHash(options.getInt("shards", 0), shardWriters);
+            }
+        }
+        boolean resume = options.has("resume");
+        if (resume && (split || schema != null || dedup != null || index || sharding != null)){
+            throw new IllegalArgumentException(
+                    "Option --resume cannot be combined with --split, --validate, --dedup, --index or sharding");
+        }
+        long checkpointInterval = options.getInt("checkpoint-interval",
+                (int) (ResumableConverter.DEFAULT_INTERVAL >> 20)) * 1024L * 1024;
+        if (checkpointInterval < 1){
+            throw new IllegalArgumentException("Option --checkpoint-interval must be at least 1");
+        }
+        // Everything besides the output name that changes the output
+        String settings = target.name().toLowerCase() + (pretty ? ",pretty" : ",compact")
+                + (schema != null ? ",validate" : "") + (dedup != null ? ",dedup=" + dedup.getName() : "") + (index ? ",index" : "");
+
+        List<Path> inputs = getInputFiles(inputDir, target);
+        if (inputs.isEmpty()){
+            System.out.println("No files to convert in \"" + inputDir + "\"");
+            return EXIT_OK;
+        }
+        Files.createDirectories(outputDir);
+        ConversionManifest manifest = options.has("incremental") ? ConversionManifest.load(outputDir) : null;
+
+        ProgressBar progressBar = options.has("progress") ? new ProgressBar(System.err, inputs.size()) : null;
+        ConversionListener listener = progressBar != null ? progressBar : ConversionListener.NONE;
+        ForkJoinPool chunkPool = split ? new ForkJoinPool(threads) : null;
+        // Split conversions gzip their chunks on the chunk pool already
+        ExecutorService compressor = gzip && !split && compressThreads > 1
+                ? Executors.newFixedThreadPool(compressThreads) : null;
+        ExecutorService executor = Executors.newFixedThreadPool(split ? 1 : Math.min(threads, inputs.size()));
+        CompletionService<Result> completion = new ExecutorCompletionService<>(executor);
+        try {
+            DuplicatePolicy policy = dedup;
+            Map<Path, List<Path>> sources = getSources(inputs, outputDir, target, gzip);
+            for (Path input : inputs){
+                Path output = outputDir.resolve(getOutputName(input, target, gzip));
+                List<Path> sharing = sources.get(output);
+                if (sharing.size() > 1){
+                    // Converting either would race the other for the output, and keeping one would lose the other
+                    Result conflict = new Result(input, output, 0, 0, new IOException("Inputs "
+                            + sharing.stream().map(path -> path.getFileName().toString()).collect(Collectors.joining(", "))
+                            + " map to the same output " + output.getFileName() + "; rename all but one"),
+                            new ArrayList<>());
+                    completion.submit(() -> conflict);
+                    continue;
+                }
+                Schema inputSchema = ContactFormat.forFile(input) == ContactFormat.XML ? schema : null;
+                Sharding shards = sharding;
+                long interval = resume ? checkpointInterval : 0;
+                completion.submit(() -> convert(input, output, target, pretty, chunkPool, compressor, inputSchema,
+                        collectErrors, policy, dedupMemory, index, shards, interval, listener, manifest, settings));
+            }
+            int failed = 0;
+            int unchanged = 0;
+            for (int i = 0; i < inputs.size(); i++){
+                Result result = completion.take().get();
+                if (progressBar != null){
+                    progressBar.clear();
+                }
+                result.print();
+                if (result.error != null || !result.invalid.isEmpty()){
+                    failed++;
+                } else if (result.skipped){
+                    unchanged++;
+                }
+                if (manifest != null){
+                    if (result.entry != null){
+                        manifest.put(result.entry);
+                    } else {
+                        manifest.remove(result.input);
+                    }
+                }
+            }
+            if (progressBar != null){
+                progressBar.close();
+            }
+            if (manifest != null){
+                manifest.save();
+                System.out.printf("Converted %d of %d file(s), %d unchanged\n", inputs.size() - failed - unchanged,
+                        inputs.size(), unchanged);
+            } else {
+                System.out.printf("Converted %d of %d file(s)\n", inputs.size() - failed, inputs.size());
+            }
+            return failed == 0 ? EXIT_OK : EXIT_FAILED;
+        } catch (ExecutionException e) {
+            // convert() reports its own failures, so this is a bug
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+            if (chunkPool != null){
+                chunkPool.shutdownNow();
+            }
+            if (compressor != null){
+                compressor.shutdownNow();
+            }
+            if (shardWriters != null){
+                shardWriters.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Converts a single file, capturing any failure in the result
+     * @param pretty whether to indent the output
+     * @param chunkPool pool to convert chunks of the file on, or null to convert it sequentially
+     * @param compressor pool to gzip output blocks on, or null to compress on the converting thread
+     * @param schema schema to validate the file against while converting, or null
+     * @param collectErrors whether to collect validation errors rather than stop at the first
+     * @param dedup how to resolve contacts sharing a CustomerID, or null to convert them all
+     * @param dedupMemory bytes the duplicate index may take before spilling to disk
+     * @param index whether to write a lookup alongside the output
+     * @param sharding how to split the output into shards, or null to write a single file
+     * @param checkpointInterval input bytes between checkpoints to resume from, or 0 to convert in one go
+     * @param listener notified of the conversion's progress
+     * @param manifest record of earlier conversions to skip unchanged inputs by, or null to convert every input
+     * @param settings options affecting the output, recorded in the manifest
+     */
+    private static Result convert(Path input, Path output, ContactFormat target, boolean pretty,
+                                  ForkJoinPool chunkPool, ExecutorService compressor, Schema schema,
+                                  boolean collectErrors, DuplicatePolicy dedup, long dedupMemory, boolean index,
+                                  Sharding sharding, long checkpointInterval, ConversionListener listener,
+                                  ConversionManifest manifest, String settings){
+        long start = System.nanoTime();
+        List<ValidationError> errors = new ArrayList<>();
+        if (manifest != null){
+            Result skipped = skipUnchanged(input, output, manifest, settings, listener);
+            if (skipped != null){
+                return skipped;
+            }
+        }
+        Deduplicator deduplicator = null;
+        try {
+            // Taken before the input is read, so that changes made while converting are noticed
+            long size = manifest != null ? Files.size(input) : 0;
+            long modified = manifest != null ? Files.getLastModifiedTime(input).toMillis() : 0;
+            MessageDigest digest = manifest != null ? ConversionManifest.newDigest() : null;
+            long contacts;
+            if (chunkPool != null || checkpointInterval > 0){
+                contacts = chunkPool != null
+                        ? ChunkedConverter.convert(input, output, target, pretty, chunkPool, listener)
+                        : ResumableConverter.convert(input, output, target, pretty, checkpointInterval,
+                                listener, compressor);
+                if (digest != null){
+                    // Read in ranges, so hashed separately
+                    ConversionManifest.update(digest, input, 0);
+                }
+            } else {
+                if (dedup != null){
+                    deduplicator = Deduplicator.scan(input, dedup, dedupMemory, output.toAbsolutePath().getParent());
+                    writeDuplicateReport(deduplicator, output);
+                }
+                contacts = StreamingConverter.convertFile(input, output, target, pretty, schema,
+                        collectErrors ? errors : null, listener, compressor, deduplicator, index, sharding, digest);
+            }
+            Result result = new Result(input, sharding != null ? Sharding.manifestFile(output) : output, contacts, System.nanoTime() - start, null, errors);
+            result.deduplicator = deduplicator;
+            if (manifest != null && errors.isEmpty()){
+                result.entry = ConversionManifest.describe(input, size, modified, digest, output, settings);
+            }
+            return result;
+        } catch (IOException | SAXException | RuntimeException e) {
+            if (sharding != null){
+                deletePartialShards(output, e);
+            }
+            return new Result(input, output, 0, System.nanoTime() - start, e, errors);
+        }
+    }
+
+    // Returns a result for an input that has not changed since it was last converted, or null
+    private static Result skipUnchanged(Path input, Path output, ConversionManifest manifest, String settings,
+                                        ConversionListener listener){
+        try {
+            ConversionManifest.Entry entry = manifest.findUnchanged(input, output, settings);
+            if (entry == null){
+                return null;
+            }
+            long size = Files.size(input);
+            ConversionProgress progress = new ConversionProgress(input.getFileName().toString(), size,
+                    () -> size, () -> 0);
+            listener.onStart(progress);
+            listener.onFinish(progress);
+            Result result = new Result(input, output, 0, 0, null, new ArrayList<>());
+            result.skipped = true;
+            result.entry = entry;
+            return result;
+        } catch (IOException e) {
+            // Checking is only an optimization; convert the input instead
+            return null;
+        }
+    }
+
+    // Reports duplicates next to the output, removing any report of an earlier run that found none
+    private static void writeDuplicateReport(Deduplicator deduplicator, Path output) throws IOException {
+        Path report = Deduplicator.reportFile(output);
+        if (deduplicator.getGroups().isEmpty()){
+            Files.deleteIfExists(report);
+        } else {
+            deduplicator.writeReport(report);
+        }
+    }
+
+    // Shards of a failed conversion are listed in its manifest, if it got as far as writing one
+    private static void deletePartialShards(Path output, Exception cause){
+        try {
+            ShardedContactWriter.deleteShards(output);
+        } catch (IOException e) {
+            cause.addSuppressed(e);
+        }
+    }
+
+    /**
+     * Gets address books in a directory that are not already in the target format
+     * @param directory directory to search (not recursive)
+     * @param target format being converted to
+     */
+    private static List<Path> getInputFiles(Path directory, ContactFormat target) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(Files::isRegularFile)
+                    .filter(path -> {
+                        ContactFormat format = ContactFormat.forFile(path);
+                        return format != null && format != target;
+                    })
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    // Groups the inputs by the output each would be converted to, in input order
+    private static Map<Path, List<Path>> getSources(List<Path> inputs, Path outputDir, ContactFormat target,
+                                                    boolean gzip){
+        Map<Path, List<Path>> sources = new HashMap<>();
+        for (Path input : inputs){
+            sources.computeIfAbsent(outputDir.resolve(getOutputName(input, target, gzip)), output -> new ArrayList<>())
+                    .add(input);
+        }
+        return sources;
+    }
+
+    // Swaps the file extension, e.g. ab.xml => ab.json, or ab.xml.gz => ab.json.gz when gzipping
+    private static String getOutputName(Path input, ContactFormat target, boolean gzip){
+        String name = Compression.baseName(input);
+        String extension = ContactFormat.forFile(input).getExtension();
+        return name.substring(0, name.length() - extension.length()) + target.getExtension()
+                + (gzip ? Compression.GZIP_EXTENSION : "");
+    }
+
+    // Outcome of converting a single file
+    private static class Result {
+        private final Path input;
+        private final Path output;
+        private final long contacts;
+        private final long elapsedNanos;
+        private final Exception error;
+        private final List<ValidationError> invalid;
+        private boolean skipped;
+        private Deduplicator deduplicator;
+        // What to record in the manifest, or null to forget the input
+        private ConversionManifest.Entry entry;
+
+        private Result(Path input, Path output, long contacts, long elapsedNanos, Exception error,
+                       List<ValidationError> invalid){
+            this.input = input;
+            this.output = output;
+            this.contacts = contacts;
+            this.elapsedNanos = elapsedNanos;
+            this.error = error;
+            this.invalid = invalid;
+        }
+
+        private void print(){
+            if (skipped){
+                System.out.printf("[SKIPPED] %s (unchanged)\n", input.getFileName());
+            } else if (error instanceof SAXParseException){
+                System.err.printf("[INVALID] %s: %s\n", input.getFileName(),
+                        new ValidationError(input, (SAXParseException) error));
+            } else if (error != null){
+                System.err.printf("[FAILED] %s: %s\n", input.getFileName(), error.getMessage());
+            } else if (!invalid.isEmpty()){
+                System.err.printf("[INVALID] %s -> %s (%d contacts, %d error(s))\n",
+                        input.getFileName(), output, contacts, invalid.size());
+                for (ValidationError validationError : invalid){
+                    System.err.println("  " + validationError);
+                }
+            } else if (deduplicator != null && !deduplicator.getGroups().isEmpty()){
+                System.out.printf("[OK] %s -> %s (%d contacts, %d ms, %s)\n",
+                        input.getFileName(), output, contacts, elapsedNanos / 1_000_000, deduplicator);
+            } else {
+                System.out.printf("[OK] %s -> %s (%d contacts, %d ms)\n",
+                        input.getFileName(), output, contacts, elapsedNanos / 1_000_000);
+            }
+        }
+    }
+}
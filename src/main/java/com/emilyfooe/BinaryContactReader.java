@@ -0,0 +1,184 @@
+package com.emilyfooe;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+/**
+ * Reads contacts from a binary address book, as laid out by {@link BinaryContactWriter}.
+ * A whole block is read and its checksum verified before any contact in it is returned,
+ * so a damaged or truncated file fails with an IOException instead of yielding bad contacts.
+ * Only the current block is held in memory.
+ * @author Emily Fooe
+ *
+ */
+public class BinaryContactReader implements ContactReader {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // Far beyond any block the writer produces, so a corrupt length fails before allocating
+    private static final int MAX_BLOCK_SIZE = 64 * 1024 * 1024;
+
+    private final InputStream input;
+    private final FieldInterner interner;
+    private final CRC32 crc = new CRC32();
+    private final byte[] blockHeader = new byte[8];
+    private byte[] block = new byte[BinaryContactWriter.BLOCK_SIZE + 1024];
+    private int position;
+    private int limit;
+    private int remaining;
+    private long blocks;
+    private boolean started;
+    private boolean finished;
+
+    public BinaryContactReader(InputStream input) {
+        this(input, FieldInterner.NONE);
+    }
+
+    /**
+     * @param input stream to read from
+     * @param interner shares repeated field values between the contacts read
+     */
+    public BinaryContactReader(InputStream input, FieldInterner interner) {
+        this.input = input instanceof BufferedInputStream || input instanceof MappedInputStream
+                ? input : new BufferedInputStream(input, BUFFER_SIZE);
+        this.interner = interner;
+    }
+
+    @Override
+    public Contact read() throws IOException {
+        if (!started){
+            readHeader();
+            started = true;
+        }
+        while (remaining == 0){
+            if (finished || !readBlock()){
+                return null;
+            }
+        }
+        String[] values = new String[ContactField.COUNT];
+        position = unpack(block, position, limit, values);
+        if (position < 0){
+            throw new IOException("Malformed address book: contacts overrun block " + blocks);
+        }
+        remaining--;
+        if (remaining == 0 && position != limit){
+            throw new IOException("Malformed address book: trailing bytes in block " + blocks);
+        }
+        interner.internAll(values);
+        return ContactField.toContact(values);
+    }
+
+    /**
+     * Unpacks a single contact as laid out by {@link BinaryContactWriter#serialize}
+     */
+    public static Contact deserialize(byte[] contact) throws IOException {
+        String[] values = new String[ContactField.COUNT];
+        int end = unpack(contact, 0, contact.length, values);
+        if (end < 0){
+            throw new IOException("Malformed address book: truncated packed contact");
+        }
+        if (end != contact.length){
+            throw new IOException("Malformed address book: trailing bytes after packed contact");
+        }
+        return ContactField.toContact(values);
+    }
+
+    // Decodes the contact at a position into values, returning the position after it,
+    // or -1 if the contact does not end by the given end
+    private static int unpack(byte[] bytes, int position, int end, String[] values){
+        if (end - position < 2){
+            return -1;
+        }
+        int present = (bytes[position] & 0xFF) << 8 | bytes[position + 1] & 0xFF;
+        position += 2;
+        for (int i = 0; i < ContactField.COUNT; i++){
+            if ((present & 1 << i) == 0){
+                continue;
+            }
+            int length = 0;
+            int shift = 0;
+            byte b;
+            do {
+                // At most five bytes encode an int
+                if (position == end || shift > 28){
+                    return -1;
+                }
+                b = bytes[position++];
+                length |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            if (length < 0 || length > end - position){
+                return -1;
+            }
+            values[i] = new String(bytes, position, length, StandardCharsets.UTF_8);
+            position += length;
+        }
+        return position;
+    }
+
+    private void readHeader() throws IOException {
+        byte[] header = new byte[BinaryContactWriter.HEADER_SIZE];
+        if (!readFully(header, header.length) || getInt(header, 0) != BinaryContactWriter.MAGIC){
+            throw new IOException("Malformed address book: not a binary address book");
+        }
+        if (header[4] > BinaryContactWriter.VERSION){
+            throw new IOException("Malformed address book: unsupported binary version " + header[4]);
+        }
+    }
+
+    // Reads and verifies the next block, returning false at the closing empty block
+    private boolean readBlock() throws IOException {
+        if (!readFully(blockHeader, blockHeader.length)){
+            throw new IOException("Malformed address book: truncated after block " + blocks);
+        }
+        int count = getInt(blockHeader, 0);
+        int length = getInt(blockHeader, 4);
+        if (count < 0 || length < 0 || length > MAX_BLOCK_SIZE || (count == 0) != (length == 0)){
+            throw new IOException("Malformed address book: bad header of block " + (blocks + 1));
+        }
+        if (block.length < length){
+            block = new byte[length];
+        }
+        if (!readFully(block, length) || !readFully(blockHeader, 4)){
+            throw new IOException("Malformed address book: truncated in block " + (blocks + 1));
+        }
+        crc.reset();
+        crc.update(block, 0, length);
+        if ((int) crc.getValue() != getInt(blockHeader, 0)){
+            throw new IOException("Malformed address book: checksum mismatch in block " + (blocks + 1));
+        }
+        if (count == 0){
+            finished = true;
+            return false;
+        }
+        blocks++;
+        position = 0;
+        limit = length;
+        remaining = count;
+        return true;
+    }
+
+    // Returns false if the stream ends first
+    private boolean readFully(byte[] bytes, int length) throws IOException {
+        int read = 0;
+        while (read < length){
+            int count = input.read(bytes, read, length - read);
+            if (count < 0){
+                return false;
+            }
+            read += count;
+        }
+        return true;
+    }
+
+    private static int getInt(byte[] bytes, int position){
+        return (bytes[position] & 0xFF) << 24 | (bytes[position + 1] & 0xFF) << 16
+                | (bytes[position + 2] & 0xFF) << 8 | bytes[position + 3] & 0xFF;
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+}
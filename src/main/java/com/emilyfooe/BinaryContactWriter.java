@@ -0,0 +1,202 @@
+package com.emilyfooe;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Writes contacts as a binary address book, which parses several times faster than
+ * either text format and takes less space.
+ * The file starts with a header of {@link #MAGIC}, a version byte and a flags byte,
+ * reserved for now. Contacts follow in blocks of about {@link #BLOCK_SIZE} bytes, each
+ * a big-endian int count of contacts, an int length, the packed contacts and a CRC-32
+ * of them, so corruption is caught before a damaged contact is handed out. An empty
+ * block ends the book, telling a complete file from a truncated one.
+ * A packed contact is a short of presence bits, one per field in declaration order,
+ * then the UTF-8 bytes of each present field preceded by a varint of their length.
+ * Missing fields are told apart from empty ones, as in JSON.
+ * As in the text formats, fragments written in order concatenate into one address book.
+ * @author Emily Fooe
+ *
+ */
+public class BinaryContactWriter implements ContactWriter {
+    /** "ABKB", the first four bytes of every binary address book */
+    static final int MAGIC = 0x41424B42;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 6;
+    /** Contacts are packed into a block until it reaches this size */
+    static final int BLOCK_SIZE = 64 * 1024;
+
+    private final OutputStream output;
+    private final boolean closesDocument;
+    private final CRC32 crc = new CRC32();
+    private final byte[] blockHeader = new byte[8];
+    private byte[] block;
+    private int length;
+    private int count;
+
+    public BinaryContactWriter(OutputStream output) throws IOException {
+        this(output, true, true);
+    }
+
+    /**
+     * Creates a writer for part of an address book
+     * @param output stream to write to
+     * @param opensDocument whether this part writes the header
+     * @param closesDocument whether this part writes the closing empty block
+     */
+    public BinaryContactWriter(OutputStream output, boolean opensDocument, boolean closesDocument) throws IOException {
+        this.output = output;
+        this.closesDocument = closesDocument;
+        block = new byte[BLOCK_SIZE + 1024];
+        if (opensDocument){
+            byte[] header = new byte[HEADER_SIZE];
+            putInt(header, 0, MAGIC);
+            header[4] = VERSION;
+            output.write(header);
+        }
+    }
+
+    @Override
+    public void write(Contact contact) throws IOException {
+        length = pack(contact, this);
+        count++;
+        if (length >= BLOCK_SIZE){
+            writeBlock();
+        }
+    }
+
+    @Override
+    public void writeSerialized(byte[] contact) throws IOException {
+        ensureCapacity(contact.length);
+        System.arraycopy(contact, 0, block, length, contact.length);
+        length += contact.length;
+        count++;
+        if (length >= BLOCK_SIZE){
+            writeBlock();
+        }
+    }
+
+    /**
+     * Ends the current block early, so everything written so far reaches the stream
+     */
+    @Override
+    public void flush() throws IOException {
+        writeBlock();
+        output.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            writeBlock();
+            if (closesDocument){
+                Arrays.fill(blockHeader, (byte) 0);
+                output.write(blockHeader);
+                // The CRC-32 of nothing
+                output.write(blockHeader, 0, 4);
+            }
+        } finally {
+            output.close();
+        }
+    }
+
+    /**
+     * Packs a single contact as it appears inside a block
+     */
+    public static byte[] serialize(Contact contact) {
+        BinaryContactWriter packer = new BinaryContactWriter();
+        // Packing may replace the block with a larger one
+        int length = pack(contact, packer);
+        return Arrays.copyOf(packer.block, length);
+    }
+
+    // For serialize, which only packs into the block
+    private BinaryContactWriter(){
+        output = null;
+        closesDocument = false;
+        block = new byte[256];
+    }
+
+    // Appends a contact to the block, returning its new length
+    private static int pack(Contact contact, BinaryContactWriter writer){
+        int start = writer.length;
+        writer.ensureCapacity(2);
+        int position = start + 2;
+        int present = 0;
+        for (ContactField field : ContactField.FIELDS){
+            String value = field.get(contact);
+            if (value == null){
+                continue;
+            }
+            present |= 1 << field.ordinal();
+            // A UTF-8 character takes at most three bytes per char
+            writer.ensureCapacity(position - start + 5 + value.length() * 3);
+            byte[] block = writer.block;
+            if (isAscii(value)){
+                position = putVarint(block, position, value.length());
+                for (int i = 0; i < value.length(); i++){
+                    block[position++] = (byte) value.charAt(i);
+                }
+            } else {
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                position = putVarint(block, position, bytes.length);
+                System.arraycopy(bytes, 0, block, position, bytes.length);
+                position += bytes.length;
+            }
+        }
+        writer.block[start] = (byte) (present >>> 8);
+        writer.block[start + 1] = (byte) present;
+        return position;
+    }
+
+    private static boolean isAscii(String value){
+        for (int i = 0; i < value.length(); i++){
+            if (value.charAt(i) >= 0x80){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Makes room for this many bytes past the end of the block
+    private void ensureCapacity(int bytes){
+        if (length + bytes > block.length){
+            block = Arrays.copyOf(block, Math.max(block.length * 2, length + bytes));
+        }
+    }
+
+    private void writeBlock() throws IOException {
+        if (count == 0){
+            return;
+        }
+        crc.reset();
+        crc.update(block, 0, length);
+        putInt(blockHeader, 0, count);
+        putInt(blockHeader, 4, length);
+        output.write(blockHeader);
+        output.write(block, 0, length);
+        putInt(blockHeader, 0, (int) crc.getValue());
+        output.write(blockHeader, 0, 4);
+        length = 0;
+        count = 0;
+    }
+
+    private static int putVarint(byte[] bytes, int position, int value){
+        while ((value & ~0x7F) != 0){
+            bytes[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        bytes[position++] = (byte) value;
+        return position;
+    }
+
+    static void putInt(byte[] bytes, int position, int value){
+        bytes[position] = (byte) (value >>> 24);
+        bytes[position + 1] = (byte) (value >>> 16);
+        bytes[position + 2] = (byte) (value >>> 8);
+        bytes[position + 3] = (byte) value;
+    }
+}
@@ -0,0 +1,675 @@
+package com.emilyfooe;
+
+import org.xml.sax.SAXException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Converts a single large address book on several cores.
+ * The input is split into byte ranges that each start at a contact, the ranges
+ * are converted concurrently on a fork-join pool into part files, and the parts
+ * are concatenated in their original order.
+ * Inputs must be UTF-8, and XML inputs must not rely on a DTD, since each
+ * range is parsed without the original prolog.
+ * @author Emily Fooe
+ *
+ */
+public class ChunkedConverter {
+    // Files smaller than this per core are not worth splitting
+    private static final long MIN_CHUNK_SIZE = 8L * 1024 * 1024;
+    private static final int SCAN_BUFFER_SIZE = 1024 * 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final byte[] XML_CONTACT = bytes(ContactHelper.CONTACT);
+    private static final byte[] XML_COMMENT_START = bytes("<!--");
+    private static final byte[] XML_COMMENT_END = bytes("-->");
+    private static final byte[] XML_CDATA_START = bytes("<![CDATA[");
+    private static final byte[] XML_CDATA_END = bytes("]]>");
+    private static final byte[] XML_PI_START = bytes("<?");
+    private static final byte[] XML_PI_END = bytes("?>");
+    private static final byte[] XML_DECLARATION_START = bytes("<!");
+    private static final byte[] XML_END_TAG_START = bytes("</");
+    private static final byte[] XML_PREFIX = bytes("<" + ContactHelper.ADDRESS_BOOK + ">");
+    private static final byte[] XML_SUFFIX = bytes("</" + ContactHelper.ADDRESS_BOOK + ">");
+    private static final byte[] JSON_PREFIX = bytes("[");
+    private static final byte[] JSON_SUFFIX = bytes("]");
+    private static final byte[] LINE_BREAK = bytes("\n");
+    private static final byte[] NOTHING = new byte[0];
+
+    /**
+     * Converts an address book, splitting it into up to one chunk per pool thread.
+     * Gzipped inputs cannot be split and are converted sequentially, with gzipped
+     * output compressed in parallel on the pool instead.
+     * @param input address book to read
+     * @param output file to write to, replaced if it exists
+     * @param target format to convert to
+     * @param pretty whether to indent the output
+     * @param pool pool the chunks are converted on
+     * @param listener notified as each chunk completes
+     * @return number of contacts converted
+     */
+    public static long convert(Path input, Path output, ContactFormat target, boolean pretty,
+                               ForkJoinPool pool, ConversionListener listener) throws IOException {
+        ContactFormat source = ContactFormat.forFile(input);
+        try (FileChannel channel = FileChannel.open(input, StandardOpenOption.READ)) {
+            int chunks = (int) Math.max(1, Math.min(pool.getParallelism(), channel.size() / MIN_CHUNK_SIZE));
+            List<Range> ranges = chunks > 1 && !Compression.isCompressed(input) ? split(channel, source, chunks) : null;
+            if (ranges == null || ranges.size() < 2){
+                return convertWhole(input, output, target, pretty, pool, listener);
+            }
+            checkOutside(channel, source, ranges);
+
+            // Chunks run on pool threads, so counters are only advanced here as each one is joined
+            long[] bytes = new long[2];
+            ConversionProgress progress = new ConversionProgress(input.getFileName().toString(), channel.size(),
+                    () -> bytes[0], () -> bytes[1]);
+            listener.onStart(progress);
+            List<ChunkTask> tasks = new ArrayList<>();
+            try {
+                for (int i = 0; i < ranges.size(); i++){
+                    Path part = Files.createTempFile(output.toAbsolutePath().getParent(),
+                            output.getFileName() + ".", ".part");
+                    ChunkTask task = new ChunkTask(channel, ranges.get(i), source, target, pretty, part,
+                            Compression.isCompressed(output), i == 0, i == ranges.size() - 1);
+                    tasks.add(task);
+                    pool.execute(task);
+                }
+                long contacts = 0;
+                for (ChunkTask task : tasks){
+                    long converted = join(task);
+                    contacts += converted;
+                    progress.addContacts(converted);
+                    bytes[0] += task.range.end - task.range.start;
+                    bytes[1] += Files.size(task.part);
+                    listener.onProgress(progress);
+                }
+                concatenate(tasks, output);
+                listener.onFinish(progress);
+                return contacts;
+            } catch (IOException | RuntimeException e) {
+                listener.onFailure(progress, e);
+                throw e;
+            } finally {
+                for (ChunkTask task : tasks){
+                    task.cancel(false);
+                    Files.deleteIfExists(task.part);
+                }
+            }
+        }
+    }
+
+    // Falls back to a sequential conversion for inputs too small to split
+    private static long convertWhole(Path input, Path output, ContactFormat target, boolean pretty,
+                                     ForkJoinPool pool, ConversionListener listener) throws IOException {
+        try {
+            return StreamingConverter.convertFile(input, output, target, pretty, null, null, listener, pool);
+        } catch (SAXException e) {
+            // Only thrown when validating
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Waits for a chunk, surfacing its IOException
+    private static long join(ChunkTask task) throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while converting " + task.range, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException){
+                throw ((UncheckedIOException) cause).getCause();
+            }
+            throw new IOException("Failed to convert " + task.range + ": " + cause.getMessage(), cause);
+        }
+    }
+
+    // Joins the part files, in order, into a temporary file that then replaces the output
+    private static void concatenate(List<ChunkTask> tasks, Path output) throws IOException {
+        Path temp = ResumableConverter.createTempSibling(output);
+        try {
+            try (FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                for (ChunkTask task : tasks){
+                    try (FileChannel in = FileChannel.open(task.part, StandardOpenOption.READ)) {
+                        long position = 0;
+                        long size = in.size();
+                        while (position < size){
+                            position += in.transferTo(position, size - position, out);
+                        }
+                    }
+                }
+            }
+            ContactIndex.delete(output);
+            Files.move(temp, output, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Checks that what lies before the first range and after the last is an address book without
+     * contacts, so an input cut short in its last contact fails instead of losing that contact
+     * @throws IOException if it is not
+     */
+    static void checkOutside(FileChannel channel, ContactFormat source, List<Range> ranges) throws IOException {
+        InputStream outside = new SequenceInputStream(
+                new BufferedInputStream(new RangeInputStream(channel, 0, ranges.get(0).start), BUFFER_SIZE),
+                new BufferedInputStream(new RangeInputStream(channel, ranges.get(ranges.size() - 1).end,
+                        channel.size()), BUFFER_SIZE));
+        try (ContactReader reader = source.newReader(outside)) {
+            if (reader.read() != null){
+                throw new IOException("Malformed address book: contacts outside the contact-aligned ranges");
+            }
+        }
+    }
+
+    /**
+     * Splits an address book into ranges that each start at a contact. The same file
+     * and number of chunks always give the same ranges.
+     * @param chunks desired number of ranges
+     * @return ranges in file order; fewer than requested if contacts are scarce,
+     *         or null if the format cannot be split
+     */
+    static List<Range> split(FileChannel channel, ContactFormat source, int chunks) throws IOException {
+        switch (source){
+            case XML:
+                return splitXml(channel, chunks);
+            case JSON:
+                return splitJson(channel, chunks);
+            case NDJSON:
+                return splitLines(channel, chunks);
+            case BINARY:
+                // Binary books read several times faster than text, so one core keeps up
+                return null;
+            default:
+                throw new IllegalArgumentException(source + " address books cannot be split");
+        }
+    }
+
+    /**
+     * Walks the XML markup, tracking element depth and skipping comments, CDATA sections,
+     * processing instructions and declarations, and starts a new range at the first
+     * &lt;Contact&gt; child of the root element past each evenly spaced offset.
+     * Text cannot contain '&lt;' outside those constructs, and tags are read to their
+     * closing '&gt;' outside quoted attribute values.
+     */
+    private static List<Range> splitXml(FileChannel channel, int chunks) throws IOException {
+        long size = channel.size();
+        long step = size / chunks;
+        long nextTarget = step;
+        List<Long> starts = new ArrayList<>();
+        long lastEnd = -1;
+        int depth = 0;
+
+        ScanBuffer scan = new ScanBuffer(channel);
+        long position = 0;
+        while ((position = scan.find(position, '<')) >= 0){
+            if (scan.matches(position, XML_COMMENT_START)){
+                position = scan.skipPast(position + XML_COMMENT_START.length, XML_COMMENT_END);
+            } else if (scan.matches(position, XML_CDATA_START)){
+                position = scan.skipPast(position + XML_CDATA_START.length, XML_CDATA_END);
+            } else if (scan.matches(position, XML_PI_START)){
+                position = scan.skipPast(position + XML_PI_START.length, XML_PI_END);
+            } else if (scan.matches(position, XML_DECLARATION_START)){
+                position = scan.skipDeclaration(position + XML_DECLARATION_START.length);
+            } else if (scan.matches(position, XML_END_TAG_START)){
+                depth--;
+                boolean contact = depth == 1 && scan.isContactName(position + XML_END_TAG_START.length);
+                position = scan.skipTag(position + XML_END_TAG_START.length);
+                if (contact){
+                    lastEnd = position;
+                }
+            } else {
+                boolean contact = depth == 1 && scan.isContactName(position + 1);
+                long tagEnd = scan.skipTag(position + 1);
+                boolean empty = scan.get(tagEnd - 2) == '/';
+                if (contact){
+                    if (starts.isEmpty()){
+                        starts.add(position);
+                    } else if (position >= nextTarget){
+                        starts.add(position);
+                        while (nextTarget <= position){
+                            nextTarget += step;
+                        }
+                    }
+                    if (empty){
+                        lastEnd = tagEnd;
+                    }
+                }
+                if (!empty){
+                    depth++;
+                }
+                position = tagEnd;
+            }
+        }
+
+        List<Range> ranges = new ArrayList<>();
+        if (starts.isEmpty() || lastEnd < starts.get(starts.size() - 1)){
+            return ranges;
+        }
+        // Ranges are contiguous, so whatever lies between contacts stays with the one before it
+        for (int i = 0; i < starts.size(); i++){
+            long end = i + 1 < starts.size() ? starts.get(i + 1) : lastEnd;
+            ranges.add(new Range(starts.get(i), end, XML_PREFIX, XML_SUFFIX));
+        }
+        return ranges;
+    }
+
+    /**
+     * Walks the top-level JSON array, tracking nesting and strings, and starts
+     * a new range at the first object past each evenly spaced offset
+     */
+    private static List<Range> splitJson(FileChannel channel, int chunks) throws IOException {
+        long size = channel.size();
+        long step = size / chunks;
+        long nextTarget = step;
+        List<Long> starts = new ArrayList<>();
+        List<Long> ends = new ArrayList<>();
+        long lastEnd = -1;
+        int depth = 0;
+        boolean inString = false;
+        boolean escaped = false;
+
+        ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+        long offset = 0;
+        while (offset < size){
+            buffer.clear();
+            int read = channel.read(buffer, offset);
+            if (read < 0){
+                break;
+            }
+            byte[] bytes = buffer.array();
+            for (int i = 0; i < read; i++){
+                byte b = bytes[i];
+                if (inString){
+                    if (escaped){
+                        escaped = false;
+                    } else if (b == '\\'){
+                        escaped = true;
+                    } else if (b == '"'){
+                        inString = false;
+                    }
+                    continue;
+                }
+                switch (b){
+                    case '"':
+                        inString = true;
+                        break;
+                    case '{':
+                        if (depth == 0){
+                            throw new IOException("Malformed address book: expected a JSON array");
+                        }
+                        if (depth == 1){
+                            long position = offset + i;
+                            if (starts.isEmpty()){
+                                starts.add(position);
+                            } else if (position >= nextTarget){
+                                ends.add(lastEnd);
+                                starts.add(position);
+                                while (nextTarget <= position){
+                                    nextTarget += step;
+                                }
+                            }
+                        }
+                        depth++;
+                        break;
+                    case '[':
+                        depth++;
+                        break;
+                    case '}':
+                        depth--;
+                        if (depth == 1){
+                            lastEnd = offset + i + 1;
+                        }
+                        break;
+                    case ']':
+                        depth--;
+                        break;
+                    default:
+                        break;
+                }
+            }
+            offset += read;
+        }
+
+        List<Range> ranges = new ArrayList<>();
+        if (starts.isEmpty() || lastEnd < 0){
+            return ranges;
+        }
+        ends.add(lastEnd);
+        for (int i = 0; i < starts.size(); i++){
+            ranges.add(new Range(starts.get(i), ends.get(i), JSON_PREFIX, JSON_SUFFIX));
+        }
+        return ranges;
+    }
+
+    // Every line stands alone, so ranges end at the first line break past each evenly spaced offset
+    private static List<Range> splitLines(FileChannel channel, int chunks) throws IOException {
+        long size = channel.size();
+        List<Range> ranges = new ArrayList<>();
+        long start = 0;
+        for (int i = 1; i < chunks; i++){
+            long target = size / chunks * i;
+            if (target <= start){
+                continue;
+            }
+            long lineBreak = indexOf(channel, LINE_BREAK, target, size);
+            if (lineBreak < 0){
+                break;
+            }
+            ranges.add(new Range(start, lineBreak + 1, NOTHING, NOTHING));
+            start = lineBreak + 1;
+        }
+        if (start < size){
+            ranges.add(new Range(start, size, NOTHING, NOTHING));
+        }
+        return ranges;
+    }
+
+    // Position of the first occurrence of pattern in [from, limit), or -1
+    private static long indexOf(FileChannel channel, byte[] pattern, long from, long limit) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+        long offset = from;
+        while (offset + pattern.length <= limit){
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), limit - offset));
+            int read = channel.read(buffer, offset);
+            if (read < pattern.length){
+                return -1;
+            }
+            int index = indexOf(buffer.array(), read, pattern);
+            if (index >= 0){
+                return offset + index;
+            }
+            // Overlap blocks so a pattern straddling the boundary is still found
+            offset += read - pattern.length + 1;
+        }
+        return -1;
+    }
+
+    private static int indexOf(byte[] bytes, int length, byte[] pattern){
+        for (int i = 0; i <= length - pattern.length; i++){
+            if (matches(bytes, i, pattern)){
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean matches(byte[] bytes, int offset, byte[] pattern){
+        for (int i = 0; i < pattern.length; i++){
+            if (bytes[offset + i] != pattern[i]){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] bytes(String value){
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    // Reads the file through a sliding window, for scans that mostly move forward a byte at a time
+    private static class ScanBuffer {
+        private final FileChannel channel;
+        private final long size;
+        private final ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+        private long offset;
+        private int length;
+
+        private ScanBuffer(FileChannel channel) throws IOException {
+            this.channel = channel;
+            this.size = channel.size();
+        }
+
+        // Byte at a position, or -1 past the end of the file
+        private int get(long position) throws IOException {
+            if (position < offset || position >= offset + length){
+                if (position < 0 || position >= size){
+                    return -1;
+                }
+                buffer.clear();
+                offset = position;
+                length = 0;
+                while (length < buffer.capacity() && offset + length < size){
+                    int read = channel.read(buffer, offset + length);
+                    if (read < 0){
+                        break;
+                    }
+                    length += read;
+                }
+                if (length == 0){
+                    return -1;
+                }
+            }
+            return buffer.get((int) (position - offset)) & 0xFF;
+        }
+
+        // Position of the next occurrence of a byte from a position, or -1
+        private long find(long position, int value) throws IOException {
+            while (get(position) >= 0){
+                byte[] bytes = buffer.array();
+                int limit = length;
+                for (int i = (int) (position - offset); i < limit; i++){
+                    if ((bytes[i] & 0xFF) == value){
+                        return offset + i;
+                    }
+                }
+                position = offset + limit;
+            }
+            return -1;
+        }
+
+        private boolean matches(long position, byte[] pattern) throws IOException {
+            for (int i = 0; i < pattern.length; i++){
+                if (get(position + i) != (pattern[i] & 0xFF)){
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // Whether a tag name at a position is exactly "Contact", so <ContactName> is not taken for one
+        private boolean isContactName(long position) throws IOException {
+            if (!matches(position, XML_CONTACT)){
+                return false;
+            }
+            int next = get(position + XML_CONTACT.length);
+            return next == '>' || next == '/' || next == ' ' || next == '\t' || next == '\r' || next == '\n';
+        }
+
+        // Position after the first occurrence of pattern from a position, or the end of the file
+        private long skipPast(long position, byte[] pattern) throws IOException {
+            while ((position = find(position, pattern[0] & 0xFF)) >= 0){
+                if (matches(position, pattern)){
+                    return position + pattern.length;
+                }
+                position++;
+            }
+            return size;
+        }
+
+        // Position after the '>' closing a tag, skipping quoted attribute values
+        private long skipTag(long position) throws IOException {
+            int quote = 0;
+            int b;
+            while ((b = get(position++)) >= 0){
+                if (quote != 0){
+                    if (b == quote){
+                        quote = 0;
+                    }
+                } else if (b == '"' || b == '\''){
+                    quote = b;
+                } else if (b == '>'){
+                    return position;
+                }
+            }
+            return size;
+        }
+
+        // Position after a <!DOCTYPE ...> or similar declaration, including any internal subset
+        private long skipDeclaration(long position) throws IOException {
+            int quote = 0;
+            int brackets = 0;
+            int b;
+            while ((b = get(position)) >= 0){
+                if (quote != 0){
+                    if (b == quote){
+                        quote = 0;
+                    }
+                } else if (matches(position, XML_COMMENT_START)){
+                    position = skipPast(position + XML_COMMENT_START.length, XML_COMMENT_END);
+                    continue;
+                } else if (b == '"' || b == '\''){
+                    quote = b;
+                } else if (b == '['){
+                    brackets++;
+                } else if (b == ']'){
+                    brackets--;
+                } else if (b == '>' && brackets == 0){
+                    return position + 1;
+                }
+                position++;
+            }
+            return size;
+        }
+    }
+
+    // A contact-aligned slice of the input, and the bytes that make it a document on its own
+    static class Range {
+        private final long start;
+        private final long end;
+        private final byte[] prefix;
+        private final byte[] suffix;
+
+        private Range(long start, long end, byte[] prefix, byte[] suffix){
+            this.start = start;
+            this.end = end;
+            this.prefix = prefix;
+            this.suffix = suffix;
+        }
+
+        long getStart() {
+            return start;
+        }
+
+        long getEnd() {
+            return end;
+        }
+
+        // Maps the range where possible, falling back to buffered positional reads
+        InputStream open(FileChannel channel) throws IOException {
+            InputStream body = MappedInputStream.map(channel, start, end);
+            if (body == null){
+                body = new BufferedInputStream(new RangeInputStream(channel, start, end), BUFFER_SIZE);
+            }
+            return new SequenceInputStream(Collections.enumeration(Arrays.asList(
+                    new ByteArrayInputStream(prefix), body, new ByteArrayInputStream(suffix))));
+        }
+
+        @Override
+        public String toString(){
+            return "bytes " + start + "-" + end;
+        }
+    }
+
+    // Converts one range into its part file
+    private static class ChunkTask extends RecursiveTask<Long> {
+        private static final long serialVersionUID = 1L;
+
+        private final FileChannel channel;
+        private final Range range;
+        private final ContactFormat source;
+        private final ContactFormat target;
+        private final boolean pretty;
+        private final Path part;
+        private final boolean compressed;
+        private final boolean first;
+        private final boolean last;
+
+        private ChunkTask(FileChannel channel, Range range, ContactFormat source, ContactFormat target,
+                          boolean pretty, Path part, boolean compressed, boolean first, boolean last){
+            this.channel = channel;
+            this.range = range;
+            this.source = source;
+            this.target = target;
+            this.pretty = pretty;
+            this.part = part;
+            this.compressed = compressed;
+            this.first = first;
+            this.last = last;
+        }
+
+        @Override
+        protected Long compute() {
+            try (ContactReader reader = source.newReader(range.open(channel));
+                 ContactWriter writer = target.newFragmentWriter(
+                         new BufferedOutputStream(create(), BUFFER_SIZE), pretty, first, last)) {
+                return StreamingConverter.convert(reader, writer);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        // Parts are gzipped separately; concatenated, their members form one gzip file
+        private OutputStream create() throws IOException {
+            OutputStream output = Files.newOutputStream(part);
+            return compressed ? new GZIPOutputStream(output, BUFFER_SIZE) : output;
+        }
+    }
+
+    // Reads a byte range with positional reads, so ranges can share one channel
+    private static class RangeInputStream extends InputStream {
+        private final FileChannel channel;
+        private final long end;
+        private long position;
+
+        private RangeInputStream(FileChannel channel, long start, long end){
+            this.channel = channel;
+            this.position = start;
+            this.end = end;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (position >= end){
+                return -1;
+            }
+            int count = (int) Math.min(length, end - position);
+            int read = channel.read(ByteBuffer.wrap(buffer, offset, count), position);
+            if (read > 0){
+                position += read;
+            }
+            return read;
+        }
+    }
+}
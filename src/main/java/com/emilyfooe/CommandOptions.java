@@ -0,0 +1,86 @@
+package com.emilyfooe;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Command-line arguments of the form {@code <command> [--name value | --flag]... [argument]...}.
+ * Usage errors are reported as IllegalArgumentException.
+ * @author Emily Fooe
+ *
+ */
+public class CommandOptions {
+    private static final String PREFIX = "--";
+
+    private final String command;
+    private final Map<String, String> options = new HashMap<>();
+    private final List<String> arguments = new ArrayList<>();
+
+    private CommandOptions(String command){
+        this.command = command;
+    }
+
+    /**
+     * Parses command-line arguments. An option followed by another option,
+     * or by nothing, is treated as a flag.
+     * @param args arguments passed to main
+     */
+    public static CommandOptions parse(String[] args){
+        if (args.length == 0){
+            throw new IllegalArgumentException("No command given");
+        }
+        CommandOptions parsed = new CommandOptions(args[0]);
+        for (int i = 1; i < args.length; i++){
+            String arg = args[i];
+            if (!arg.startsWith(PREFIX)){
+                parsed.arguments.add(arg);
+                continue;
+            }
+            String name = arg.substring(PREFIX.length());
+            if (i + 1 < args.length && !args[i + 1].startsWith(PREFIX)){
+                parsed.options.put(name, args[++i]);
+            } else {
+                parsed.options.put(name, "true");
+            }
+        }
+        return parsed;
+    }
+
+    public String getCommand() {
+        return command;
+    }
+
+    public List<String> getArguments() {
+        return arguments;
+    }
+
+    public boolean has(String name){
+        return options.containsKey(name);
+    }
+
+    public String get(String name, String defaultValue){
+        return options.getOrDefault(name, defaultValue);
+    }
+
+    public String require(String name){
+        String value = options.get(name);
+        if (value == null){
+            throw new IllegalArgumentException("Missing required option --" + name);
+        }
+        return value;
+    }
+
+    public int getInt(String name, int defaultValue){
+        String value = options.get(name);
+        if (value == null){
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Option --" + name + " expects a number, got \"" + value + "\"");
+        }
+    }
+}
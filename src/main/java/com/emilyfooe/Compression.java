@@ -0,0 +1,61 @@
+package com.emilyfooe;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Gzip compression of address book files, recognized by a ".gz" suffix after
+ * the format extension, e.g. "ab.xml.gz". Compressed files are streamed
+ * through, never decompressed to disk.
+ * @author Emily Fooe
+ *
+ */
+public class Compression {
+    public static final String GZIP_EXTENSION = ".gz";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Determines whether a file is gzipped from its name
+     */
+    public static boolean isCompressed(Path file){
+        return file.getFileName().toString().toLowerCase().endsWith(GZIP_EXTENSION);
+    }
+
+    /**
+     * Gets a file name without any compression suffix, e.g. "ab.xml.gz" => "ab.xml"
+     */
+    public static String baseName(Path file){
+        String name = file.getFileName().toString();
+        return isCompressed(file) ? name.substring(0, name.length() - GZIP_EXTENSION.length()) : name;
+    }
+
+    /**
+     * Decompresses an input if its file is gzipped
+     * @param input raw contents of the file
+     * @param file file being read
+     */
+    public static InputStream decompress(InputStream input, Path file) throws IOException {
+        return isCompressed(file) ? new GZIPInputStream(input, BUFFER_SIZE) : input;
+    }
+
+    /**
+     * Compresses an output if its file is to be gzipped
+     * @param output raw contents of the file
+     * @param file file being written
+     * @param compressor pool to compress blocks on in parallel, or null to compress on the calling thread
+     */
+    public static OutputStream compress(OutputStream output, Path file, ExecutorService compressor) throws IOException {
+        if (!isCompressed(file)){
+            return output;
+        }
+        if (compressor != null){
+            return new ParallelGzipOutputStream(output, compressor);
+        }
+        return new GZIPOutputStream(output, BUFFER_SIZE);
+    }
+}
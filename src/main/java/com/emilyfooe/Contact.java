@@ -1,3 +1,5 @@
+package com.emilyfooe;
+
 /**
  * Represents a contact in the address book.
  * CustomerID must be unique.
@@ -33,8 +35,11 @@ public class Contact {
         country = builder.country;
         phone = builder.phone;
         fax = builder.fax;
-        System.out.println(this);
-        System.out.println();
+    }
+
+    // For views that supply their fields through the getters instead, e.g. ContactStore.View
+    protected Contact(){
+        this(new Builder(null));
     }
 
     //region Getters
@@ -89,9 +94,9 @@ public class Contact {
 
     @Override
     public String toString(){
-        return "Customer ID: " + customerId +
-                "\nCompany Name: " + companyName +
-                "\nEmail: " + email;
+        return "Customer ID: " + getCustomerId() +
+                "\nCompany Name: " + getCompanyName() +
+                "\nEmail: " + getEmail();
     }
     public static class Builder {
         private final String customerId;
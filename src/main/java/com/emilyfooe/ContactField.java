@@ -0,0 +1,110 @@
+package com.emilyfooe;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * The fields of a contact, in declaration order, with their XML tag, JSON name,
+ * getter and builder setter.
+ * Parsers collect text into a String[] indexed by ordinal via {@link #forTag} or
+ * {@link #forJsonName}, then call {@link #toContact}, so every child of a
+ * &lt;Contact&gt; is visited exactly once.
+ * @author Emily Fooe
+ *
+ */
+public enum ContactField {
+    CUSTOMER_ID(ContactHelper.CUSTOMER_ID, "customerId", false, Contact::getCustomerId, null),
+    COMPANY_NAME(ContactHelper.COMPANY_NAME, "companyName", false, Contact::getCompanyName, Contact.Builder::companyName),
+    CONTACT_NAME(ContactHelper.CONTACT_NAME, "contactName", false, Contact::getContactName, Contact.Builder::contactName),
+    CONTACT_TITLE(ContactHelper.CONTACT_TITLE, "contactTitle", false, Contact::getContactTitle, Contact.Builder::contactTitle),
+    ADDRESS(ContactHelper.ADDRESS, "address", false, Contact::getAddress, Contact.Builder::address),
+    CITY(ContactHelper.CITY, "city", false, Contact::getCity, Contact.Builder::city),
+    EMAIL(ContactHelper.EMAIL, "email", false, Contact::getEmail, Contact.Builder::email),
+    REGION(ContactHelper.REGION, "region", true, Contact::getRegion, Contact.Builder::region),
+    POSTAL_CODE(ContactHelper.POSTAL_CODE, "postalCode", true, Contact::getPostalCode, Contact.Builder::postalCode),
+    COUNTRY(ContactHelper.COUNTRY, "country", false, Contact::getCountry, Contact.Builder::country),
+    PHONE(ContactHelper.PHONE, "phone", false, Contact::getPhone, Contact.Builder::phone),
+    FAX(ContactHelper.FAX, "fax", true, Contact::getFax, Contact.Builder::fax);
+
+    // values() clones the array on every call
+    static final ContactField[] FIELDS = values();
+    public static final int COUNT = FIELDS.length;
+
+    private static final Map<String, ContactField> byTag = new HashMap<>();
+    private static final Map<String, ContactField> byJsonName = new HashMap<>();
+    static {
+        for (ContactField field : FIELDS){
+            byTag.put(field.tag, field);
+            byJsonName.put(field.jsonName, field);
+        }
+    }
+
+    private final String tag;
+    private final String jsonName;
+    private final boolean optional;
+    private final Function<Contact, String> getter;
+    private final BiConsumer<Contact.Builder, String> setter;
+
+    ContactField(String tag, String jsonName, boolean optional, Function<Contact, String> getter,
+                 BiConsumer<Contact.Builder, String> setter){
+        this.tag = tag;
+        this.jsonName = jsonName;
+        this.optional = optional;
+        this.getter = getter;
+        this.setter = setter;
+    }
+
+    //region Getters
+    public String getTag() {
+        return tag;
+    }
+
+    public String getJsonName() {
+        return jsonName;
+    }
+
+    // Region, postal code, and fax are optional
+    public boolean isOptional() {
+        return optional;
+    }
+    //endregion
+
+    /**
+     * Reads this field from a contact
+     */
+    public String get(Contact contact){
+        return getter.apply(contact);
+    }
+
+    /**
+     * Looks up a field by XML element name
+     * @return the field, or null if the tag is not a contact field
+     */
+    public static ContactField forTag(String tag){
+        return byTag.get(tag);
+    }
+
+    /**
+     * Looks up a field by JSON property name
+     * @return the field, or null if the name is not a contact field
+     */
+    public static ContactField forJsonName(String name){
+        return byJsonName.get(name);
+    }
+
+    /**
+     * Builds a contact from field values
+     * @param values values indexed by field ordinal; missing values are null
+     */
+    public static Contact toContact(String[] values){
+        Contact.Builder builder = new Contact.Builder(values[CUSTOMER_ID.ordinal()]);
+        for (ContactField field : FIELDS){
+            if (field.setter != null){
+                field.setter.accept(builder, values[field.ordinal()]);
+            }
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,234 @@
+package com.emilyfooe;
+
+import com.google.gson.stream.JsonReader;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Address book file formats the converter can read and write.
+ * @author Emily Fooe
+ *
+ */
+public enum ContactFormat {
+    XML(".xml", true) {
+        @Override
+        public ContactReader newReader(InputStream input, FieldInterner interner) throws IOException {
+            return new XmlContactReader(input, interner);
+        }
+
+        @Override
+        public ContactWriter newFragmentWriter(OutputStream output, boolean pretty, boolean opensDocument,
+                                               boolean closesDocument) throws IOException {
+            return new XmlContactWriter(output, pretty, opensDocument, closesDocument);
+        }
+
+        @Override
+        public byte[] serialize(Contact contact, boolean pretty) throws IOException {
+            return XmlContactWriter.serialize(contact, pretty);
+        }
+
+        @Override
+        public Contact deserialize(byte[] contact) throws IOException {
+            // A contact element alone is not a document, so it is read as the only one in an address book
+            InputStream document = new SequenceInputStream(Collections.enumeration(Arrays.asList(
+                    new ByteArrayInputStream(("<" + ContactHelper.ADDRESS_BOOK + ">").getBytes(StandardCharsets.UTF_8)),
+                    new ByteArrayInputStream(contact),
+                    new ByteArrayInputStream(("</" + ContactHelper.ADDRESS_BOOK + ">").getBytes(StandardCharsets.UTF_8)))));
+            try (ContactReader reader = newReader(document)) {
+                Contact read = reader.read();
+                if (read == null){
+                    throw new IOException("Malformed address book: no contact in serialized form");
+                }
+                return read;
+            }
+        }
+    },
+    JSON(".json", true) {
+        @Override
+        public ContactReader newReader(InputStream input, FieldInterner interner) {
+            return new JsonContactReader(new BufferedReader(
+                    new InputStreamReader(input, StandardCharsets.UTF_8)), interner);
+        }
+
+        @Override
+        public ContactWriter newFragmentWriter(OutputStream output, boolean pretty, boolean opensDocument,
+                                               boolean closesDocument) throws IOException {
+            return new JsonContactWriter(new BufferedWriter(
+                    new OutputStreamWriter(output, StandardCharsets.UTF_8)), pretty, opensDocument, closesDocument);
+        }
+
+        @Override
+        public byte[] serialize(Contact contact, boolean pretty) throws IOException {
+            return JsonContactWriter.serialize(contact, pretty);
+        }
+
+        @Override
+        public Contact deserialize(byte[] contact) throws IOException {
+            try (JsonReader reader = new JsonReader(new InputStreamReader(new ByteArrayInputStream(contact),
+                    StandardCharsets.UTF_8))) {
+                return ContactTypeAdapter.INSTANCE.read(reader);
+            } catch (IllegalStateException e) {
+                throw new IOException("Malformed address book: " + e.getMessage(), e);
+            }
+        }
+    },
+    // Never indented, so pretty is ignored
+    BINARY(".abk", false) {
+        @Override
+        public ContactReader newReader(InputStream input, FieldInterner interner) {
+            return new BinaryContactReader(input, interner);
+        }
+
+        @Override
+        public ContactWriter newFragmentWriter(OutputStream output, boolean pretty, boolean opensDocument,
+                                               boolean closesDocument) throws IOException {
+            return new BinaryContactWriter(output, opensDocument, closesDocument);
+        }
+
+        @Override
+        public byte[] serialize(Contact contact, boolean pretty) {
+            return BinaryContactWriter.serialize(contact);
+        }
+
+        @Override
+        public Contact deserialize(byte[] contact) throws IOException {
+            return BinaryContactReader.deserialize(contact);
+        }
+    },
+    // One compact object per line, so pretty is ignored
+    NDJSON(".ndjson", true) {
+        @Override
+        public ContactReader newReader(InputStream input, FieldInterner interner) {
+            return new NdjsonContactReader(new BufferedReader(
+                    new InputStreamReader(input, StandardCharsets.UTF_8)), interner);
+        }
+
+        @Override
+        public ContactWriter newFragmentWriter(OutputStream output, boolean pretty, boolean opensDocument,
+                                               boolean closesDocument) {
+            return new NdjsonContactWriter(new BufferedWriter(
+                    new OutputStreamWriter(output, StandardCharsets.UTF_8)), opensDocument, closesDocument);
+        }
+
+        @Override
+        public byte[] serialize(Contact contact, boolean pretty) throws IOException {
+            return JsonContactWriter.serialize(contact, false);
+        }
+
+        @Override
+        public Contact deserialize(byte[] contact) throws IOException {
+            return JSON.deserialize(contact);
+        }
+    };
+
+    private final String extension;
+    private final boolean text;
+
+    ContactFormat(String extension, boolean text){
+        this.extension = extension;
+        this.text = text;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+
+    /**
+     * Whether address books in this format are UTF-8 text, in which each contact sits at
+     * a fixed offset that can be indexed. Binary contacts are packed into checksummed blocks.
+     */
+    public boolean isText() {
+        return text;
+    }
+
+    /**
+     * Opens a reader over an address book in this format
+     * @param input stream to read from, closed along with the reader
+     */
+    public ContactReader newReader(InputStream input) throws IOException {
+        return newReader(input, FieldInterner.NONE);
+    }
+
+    /**
+     * Opens a reader that interns repeated field values, for contacts that are kept in memory
+     * @param input stream to read from, closed along with the reader
+     * @param interner shares repeated field values between the contacts read
+     */
+    public abstract ContactReader newReader(InputStream input, FieldInterner interner) throws IOException;
+
+    /**
+     * Opens a writer producing an address book in this format
+     * @param output stream to write to, closed along with the writer
+     * @param pretty whether to indent the output; compact output suits machine consumers
+     */
+    public ContactWriter newWriter(OutputStream output, boolean pretty) throws IOException {
+        return newFragmentWriter(output, pretty, true, true);
+    }
+
+    /**
+     * Opens a writer producing part of an address book in this format.
+     * Parts written in order, the first opening and the last closing the
+     * document, concatenate byte for byte into a complete address book.
+     * @param output stream to write to, closed along with the writer
+     * @param pretty whether to indent the output, where the format supports it
+     * @param opensDocument whether this part starts the document
+     * @param closesDocument whether this part ends the document
+     */
+    public abstract ContactWriter newFragmentWriter(OutputStream output, boolean pretty, boolean opensDocument,
+                                                    boolean closesDocument) throws IOException;
+
+    /**
+     * Serializes a single contact exactly as a writer in this format lays it out mid-document,
+     * without the separator before it, for {@link ContactWriter#writeSerialized}
+     * @param contact contact to serialize
+     * @param pretty whether to indent it, where the format supports it
+     * @return the contact in UTF-8, or packed for binary address books
+     */
+    public abstract byte[] serialize(Contact contact, boolean pretty) throws IOException;
+
+    /**
+     * Parses a single contact as laid out by {@link #serialize}, e.g. read out of an
+     * address book at an indexed offset
+     * @param contact the contact in UTF-8, or packed for binary address books
+     */
+    public abstract Contact deserialize(byte[] contact) throws IOException;
+
+    /**
+     * Looks up a format by name, e.g. "json"
+     * @throws IllegalArgumentException if no format has that name
+     */
+    public static ContactFormat forName(String name){
+        for (ContactFormat format : values()){
+            if (format.name().equalsIgnoreCase(name)){
+                return format;
+            }
+        }
+        throw new IllegalArgumentException("Unknown format \"" + name + "\"");
+    }
+
+    /**
+     * Determines the format of a file from its extension, ignoring any compression suffix
+     * @return the matching format, or null if the extension is not recognized
+     */
+    public static ContactFormat forFile(Path file){
+        String name = Compression.baseName(file).toLowerCase();
+        for (ContactFormat format : values()){
+            if (name.endsWith(format.extension)){
+                return format;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,144 @@
+package com.emilyfooe;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * A helper class allowing for the conversion between JSON and XML
+ * @author Emily Fooe
+ *
+ */
+public class ContactHelper {
+    static final String ADDRESS_BOOK = "AddressBook";
+    static final String CONTACT = "Contact";
+    static final String CUSTOMER_ID = "CustomerID";
+    static final String COMPANY_NAME = "CompanyName";
+    static final String CONTACT_NAME = "ContactName";
+    static final String CONTACT_TITLE = "ContactTitle";
+    static final String ADDRESS = "Address";
+    static final String CITY = "City";
+    static final String EMAIL = "Email";
+    static final String REGION = "Region";
+    static final String POSTAL_CODE = "PostalCode";
+    static final String COUNTRY = "Country";
+    static final String PHONE = "Phone";
+    static final String FAX = "Fax";
+
+    private static final ConversionContext context = ConversionContext.getDefault();
+
+    // Saves JsonArray in .json file; .ndjson files are read line by line
+    public static Contact[] jsonFileToContactArray(File file) throws IOException {
+        if (ContactFormat.forFile(file.toPath()) == ContactFormat.NDJSON){
+            List<Contact> contacts = new ArrayList<>();
+            try (ContactReader reader = ContactFormat.NDJSON.newReader(MappedInputStream.open(file.toPath()),
+                    context.getInterner())) {
+                Contact contact;
+                while ((contact = reader.read()) != null){
+                    contacts.add(contact);
+                }
+            }
+            return contacts.toArray(new Contact[0]);
+        }
+        try (Reader reader = new InputStreamReader(MappedInputStream.open(file.toPath()), StandardCharsets.UTF_8)) {
+            return context.getGson().fromJson(reader, Contact[].class);
+        }
+    }
+
+    // Converts Contact[] to JsonArray
+    public static JsonArray contactArrayToJsonArray(Contact[] contacts){
+        JsonArray contactArray = new JsonArray();
+        Gson gson = context.getGson();
+        for (Contact contact : contacts){
+            contactArray.add(gson.toJsonTree(contact, Contact.class));
+        }
+        return contactArray;
+    }
+
+    // Converts contacts stored in an XML address book to Contact[]
+    public static Contact[] xmlFileToContactArray(File file) throws IOException, ParserConfigurationException, SAXException {
+        DocumentBuilder builder = context.getDocumentBuilder();
+        Document document;
+        try (InputStream input = MappedInputStream.open(file.toPath())) {
+            document = builder.parse(input, file.toURI().toString());
+        }
+        document.getDocumentElement().normalize();
+
+        NodeList contactList = document.getElementsByTagName(CONTACT);
+
+        Contact[] contacts = new Contact[contactList.getLength()];
+        for (int i = 0; i < contactList.getLength(); i++){
+            Node currentNode = contactList.item(i);
+            if (currentNode.getNodeType() != Node.ELEMENT_NODE)
+                continue;
+            Element currentElement = (Element)currentNode;
+            contacts[i] = ContactHelper.xmlNodeToContact(currentElement);
+        }
+        return contacts;
+    }
+
+
+    // Create elements for each XML node during document construction
+    public static void contactToXmlNode(Document doc, Element root, Contact contact){
+        Element contactNode = doc.createElement(CONTACT);
+        root.appendChild(contactNode);
+
+        for (ContactField field : ContactField.FIELDS){
+            String value = field.get(contact);
+            // Region, postal code, and fax are optional fields
+            if (value == null && field.isOptional()){
+                continue;
+            }
+            Element element = doc.createElement(field.getTag());
+            element.appendChild(doc.createTextNode(value));
+            contactNode.appendChild(element);
+        }
+    }
+
+    // Read in an XML node and convert to Contact, visiting each child element once
+    public static Contact xmlNodeToContact(Element node){
+        String[] values = new String[ContactField.COUNT];
+        for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()){
+            if (child.getNodeType() != Node.ELEMENT_NODE)
+                continue;
+            ContactField field = ContactField.forTag(child.getNodeName());
+            if (field != null){
+                values[field.ordinal()] = child.getTextContent();
+            }
+        }
+        context.getInterner().internAll(values);
+        return ContactField.toContact(values);
+    }
+
+    /**
+     * Gets the interner shared by the Contact[] conversions, e.g. for its statistics
+     * @see ConversionContext#getInterner()
+     */
+    public static FieldInterner getInterner(){
+        return context.getInterner();
+    }
+
+    /**
+     * Chooses which fields the Contact[] conversions intern; {@link FieldInterner#LOW_CARDINALITY} by default
+     * @see ConversionContext#setInterner(FieldInterner)
+     */
+    public static void setInterner(FieldInterner fieldInterner){
+        context.setInterner(fieldInterner);
+    }
+}
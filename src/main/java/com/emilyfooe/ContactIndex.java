@@ -0,0 +1,220 @@
+package com.emilyfooe;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Sidecar index of an address book, kept next to it as "&lt;name&gt;.idx".
+ * For every contact it records the CustomerID, a hash of the contact's fields and
+ * where the contact lies in the file, so an address book can be compared with a new
+ * version, or contacts copied out of it, without parsing it again.
+ * The first line describes the indexed file; an index whose file has since changed
+ * size or modification time is stale and is ignored.
+ * @author Emily Fooe
+ *
+ */
+public class ContactIndex {
+    public static final String EXTENSION = ".idx";
+    private static final String HEADER = "#contact-index";
+    private static final String SEPARATOR = "\t";
+    private static final ThreadLocal<MessageDigest> digests = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support MD5
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private final ContactFormat format;
+    private final boolean pretty;
+    // In file order
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+
+    /**
+     * Creates an empty index for an address book about to be written
+     * @param format format of the address book
+     * @param pretty whether the address book is indented
+     */
+    public ContactIndex(ContactFormat format, boolean pretty){
+        this.format = format;
+        this.pretty = pretty;
+    }
+
+    /**
+     * Gets the index file kept alongside an address book
+     */
+    public static Path indexFile(Path addressBook){
+        return addressBook.resolveSibling(addressBook.getFileName() + EXTENSION);
+    }
+
+    /**
+     * Reads the index of an address book
+     * @param addressBook indexed file
+     * @return the index, or null if there is none or the file has changed since it was indexed
+     */
+    public static ContactIndex load(Path addressBook) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(indexFile(addressBook), StandardCharsets.UTF_8)) {
+            String[] header = split(reader.readLine(), 5);
+            // Same-sized rewrites are caught by the modification time
+            if (header == null || !header[0].equals(HEADER) || !Files.exists(addressBook)
+                    || Long.parseLong(header[3]) != Files.size(addressBook)
+                    || Long.parseLong(header[4]) != Files.getLastModifiedTime(addressBook).toMillis()){
+                return null;
+            }
+            ContactIndex index = new ContactIndex(ContactFormat.forName(header[1]), Boolean.parseBoolean(header[2]));
+            String line;
+            while ((line = reader.readLine()) != null){
+                String[] fields = split(line, 4);
+                if (fields == null){
+                    return null;
+                }
+                index.add(fields[0], fields[1], Long.parseLong(fields[2]), Integer.parseInt(fields[3]));
+            }
+            return index;
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IllegalArgumentException e) {
+            // Includes NumberFormatException; a damaged index is as good as none
+            return null;
+        }
+    }
+
+    private static String[] split(String line, int count){
+        if (line == null){
+            return null;
+        }
+        String[] fields = line.split(SEPARATOR, -1);
+        return fields.length == count ? fields : null;
+    }
+
+    /**
+     * Records the next contact of the file
+     * @param customerId the contact's CustomerID
+     * @param hash hash of its fields, from {@link #hash(Contact)}
+     * @param offset position of its first byte in the file
+     * @param length length of its serialized form
+     */
+    public void add(String customerId, String hash, long offset, int length){
+        entries.put(customerId, new Entry(customerId, hash, offset, length));
+    }
+
+    public Entry get(String customerId){
+        return entries.get(customerId);
+    }
+
+    public Collection<Entry> getEntries(){
+        return entries.values();
+    }
+
+    public ContactFormat getFormat() {
+        return format;
+    }
+
+    public boolean isPretty() {
+        return pretty;
+    }
+
+    /**
+     * Removes the index of an address book that is about to be rewritten without one
+     */
+    public static void delete(Path addressBook) throws IOException {
+        Files.deleteIfExists(indexFile(addressBook));
+    }
+
+    /**
+     * Writes the index next to its address book, replacing any earlier one atomically.
+     * It is saved before the address book is renamed into place, describing the renamed
+     * file, so an interruption in between leaves an index that matches neither version
+     * rather than one that matches the old version.
+     * @param addressBook indexed file
+     * @param contents complete file about to be renamed to addressBook, or addressBook itself
+     */
+    public void save(Path addressBook, Path contents) throws IOException {
+        long fileSize = Files.size(contents);
+        long fileModified = Files.getLastModifiedTime(contents).toMillis();
+        Path file = indexFile(addressBook);
+        Path temp = ResumableConverter.createTempSibling(file);
+        try {
+            try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                writer.write(String.join(SEPARATOR, HEADER, format.name(), Boolean.toString(pretty),
+                        Long.toString(fileSize), Long.toString(fileModified)));
+                writer.newLine();
+                for (Entry entry : entries.values()){
+                    writer.write(String.join(SEPARATOR, entry.customerId, entry.hash,
+                            Long.toString(entry.offset), Integer.toString(entry.length)));
+                    writer.newLine();
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Hashes a contact's fields, independently of the format or layout it is written in
+     * @return the hash as lowercase hex
+     */
+    public static String hash(Contact contact){
+        MessageDigest digest = digests.get();
+        for (ContactField field : ContactField.FIELDS){
+            String value = field.get(contact);
+            // Distinguishes a missing field from an empty one
+            digest.update(value == null ? (byte) 0 : (byte) 1);
+            if (value != null){
+                digest.update(value.getBytes(StandardCharsets.UTF_8));
+            }
+            digest.update((byte) 0);
+        }
+        StringBuilder hex = new StringBuilder(32);
+        for (byte b : digest.digest()){
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Where one contact lies in the indexed file
+     */
+    public static class Entry {
+        private final String customerId;
+        private final String hash;
+        private final long offset;
+        private final int length;
+
+        private Entry(String customerId, String hash, long offset, int length){
+            this.customerId = customerId;
+            this.hash = hash;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        public String getCustomerId() {
+            return customerId;
+        }
+
+        public String getHash() {
+            return hash;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public int getLength() {
+            return length;
+        }
+    }
+}
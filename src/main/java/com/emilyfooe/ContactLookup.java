@@ -0,0 +1,403 @@
+package com.emilyfooe;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sidecar lookup index of an uncompressed address book, kept next to it as "&lt;name&gt;.lookup",
+ * for fetching contacts by CustomerID, country or city without parsing the address book.
+ * <p>
+ * The file holds one sorted table per indexed field. A table is an array of fixed-size slots
+ * (key position, contact offset, contact length) sorted by key, then by offset, followed by
+ * each distinct key once as a length-prefixed UTF-8 string. Keys are compared as UTF-8 bytes.
+ * The file is memory-mapped and a lookup binary-searches the slots, so finding a key touches
+ * O(log n) pages; the matching contacts are then read from the address book at their offsets.
+ * <p>
+ * The header records the size and modification time of the address book; a lookup whose book
+ * has since changed is stale and is ignored. Instances are not thread-safe.
+ * @author Emily Fooe
+ *
+ */
+public class ContactLookup implements Closeable {
+    public static final String EXTENSION = ".lookup";
+    /** Fields with a table, in file order */
+    public static final List<ContactField> INDEXED_FIELDS = Arrays.asList(
+            ContactField.CUSTOMER_ID, ContactField.COUNTRY, ContactField.CITY);
+    private static final int MAGIC = 0x434c4b50;
+    private static final int VERSION = 1;
+    // Key position, contact offset and contact length
+    private static final int SLOT_SIZE = 4 + 8 + 4;
+    // Magic, version, format, pretty, book size and modification time, then a count, slot and key position per table
+    private static final int HEADER_SIZE = 4 + 4 + 1 + 1 + 8 + 8 + INDEXED_FIELDS.size() * (4 + 8 + 8);
+
+    private final FileChannel book;
+    private final ByteBuffer index;
+    private final ContactFormat format;
+    private final boolean pretty;
+    private final Table[] tables = new Table[ContactField.COUNT];
+
+    private ContactLookup(FileChannel book, ByteBuffer index){
+        this.book = book;
+        this.index = index;
+        index.position(8);
+        format = ContactFormat.values()[index.get()];
+        pretty = index.get() != 0;
+        index.position(index.position() + 16);
+        for (ContactField field : INDEXED_FIELDS){
+            tables[field.ordinal()] = new Table(index.getInt(), index.getLong(), index.getLong());
+        }
+    }
+
+    /**
+     * Gets the lookup file kept alongside an address book
+     */
+    public static Path lookupFile(Path addressBook){
+        return addressBook.resolveSibling(addressBook.getFileName() + EXTENSION);
+    }
+
+    /**
+     * Opens the lookup of an address book
+     * @param addressBook indexed file
+     * @return the lookup, or null if there is none or the file has changed since it was indexed
+     */
+    public static ContactLookup open(Path addressBook) throws IOException {
+        ByteBuffer index;
+        try (FileChannel channel = FileChannel.open(lookupFile(addressBook), StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE || channel.size() > Integer.MAX_VALUE){
+                return null;
+            }
+            // The mapping stays valid after the channel is closed
+            index = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        if (index.getInt(0) != MAGIC || index.getInt(4) != VERSION || !Files.exists(addressBook)
+                || index.getLong(10) != Files.size(addressBook)
+                || index.getLong(18) != Files.getLastModifiedTime(addressBook).toMillis()){
+            return null;
+        }
+        return new ContactLookup(FileChannel.open(addressBook, StandardOpenOption.READ), index);
+    }
+
+    public ContactFormat getFormat() {
+        return format;
+    }
+
+    public boolean isPretty() {
+        return pretty;
+    }
+
+    /**
+     * Fetches a contact by CustomerID
+     * @return the contact, or null if there is none; with duplicate IDs, the first in the file
+     */
+    public Contact get(String customerId) throws IOException {
+        List<Posting> postings = postings(ContactField.CUSTOMER_ID, customerId);
+        return postings.isEmpty() ? null : format.deserialize(read(postings.get(0)));
+    }
+
+    /**
+     * Fetches the contacts whose field has a value, in file order
+     * @param field one of {@link #INDEXED_FIELDS}
+     */
+    public List<Contact> find(ContactField field, String value) throws IOException {
+        Map<ContactField, String> criteria = new HashMap<>();
+        criteria.put(field, value);
+        return find(criteria);
+    }
+
+    /**
+     * Fetches the contacts matching every criterion, e.g. a country and a city, in file order
+     * @param criteria values by field, each one of {@link #INDEXED_FIELDS}
+     */
+    public List<Contact> find(Map<ContactField, String> criteria) throws IOException {
+        List<Contact> contacts = new ArrayList<>();
+        for (byte[] serialized : findSerialized(criteria)){
+            contacts.add(format.deserialize(serialized));
+        }
+        return contacts;
+    }
+
+    /**
+     * Reads the contacts matching every criterion as they appear in the address book,
+     * without parsing them, e.g. to copy them into another address book of the same layout
+     * @param criteria values by field, each one of {@link #INDEXED_FIELDS}
+     */
+    public List<byte[]> findSerialized(Map<ContactField, String> criteria) throws IOException {
+        if (criteria.isEmpty()){
+            throw new IllegalArgumentException("No criteria given");
+        }
+        List<Posting> matches = null;
+        for (Map.Entry<ContactField, String> criterion : criteria.entrySet()){
+            List<Posting> postings = postings(criterion.getKey(), criterion.getValue());
+            matches = matches == null ? postings : intersect(matches, postings);
+        }
+        List<byte[]> serialized = new ArrayList<>(matches.size());
+        for (Posting posting : matches){
+            serialized.add(read(posting));
+        }
+        return serialized;
+    }
+
+    // Binary-searches a table for the first slot with the key, then collects the slots that follow with it
+    private List<Posting> postings(ContactField field, String value){
+        Table table = tables[field.ordinal()];
+        if (table == null){
+            throw new IllegalArgumentException("Field " + field.getJsonName() + " is not indexed");
+        }
+        byte[] key = value.getBytes(StandardCharsets.UTF_8);
+        int low = 0;
+        int high = table.count;
+        while (low < high){
+            int middle = (low + high) >>> 1;
+            if (compareKey(table, middle, key) < 0){
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        List<Posting> postings = new ArrayList<>();
+        for (int slot = low; slot < table.count && compareKey(table, slot, key) == 0; slot++){
+            int position = (int) (table.slots + (long) slot * SLOT_SIZE);
+            postings.add(new Posting(index.getLong(position + 4), index.getInt(position + 12)));
+        }
+        return postings;
+    }
+
+    // Compares a slot's key with a key as unsigned bytes
+    private int compareKey(Table table, int slot, byte[] key){
+        int keyPosition = (int) (table.keys + index.getInt((int) (table.slots + (long) slot * SLOT_SIZE)));
+        int length = index.getInt(keyPosition);
+        int start = keyPosition + 4;
+        for (int i = 0; i < Math.min(length, key.length); i++){
+            int difference = (index.get(start + i) & 0xff) - (key[i] & 0xff);
+            if (difference != 0){
+                return difference;
+            }
+        }
+        return length - key.length;
+    }
+
+    // Postings of a key are in file order, so matches of several keys are found in one pass
+    private static List<Posting> intersect(List<Posting> first, List<Posting> second){
+        List<Posting> both = new ArrayList<>();
+        int i = 0;
+        int j = 0;
+        while (i < first.size() && j < second.size()){
+            long a = first.get(i).offset;
+            long b = second.get(j).offset;
+            if (a == b){
+                both.add(first.get(i));
+            }
+            if (a <= b){
+                i++;
+            }
+            if (b <= a){
+                j++;
+            }
+        }
+        return both;
+    }
+
+    private byte[] read(Posting posting) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(posting.length);
+        while (buffer.hasRemaining()){
+            if (book.read(buffer, posting.offset + buffer.position()) < 0){
+                throw new IOException("Lookup does not match its address book");
+            }
+        }
+        return buffer.array();
+    }
+
+    @Override
+    public void close() throws IOException {
+        book.close();
+    }
+
+    // Where a table's slots and keys start in the file
+    private static class Table {
+        private final int count;
+        private final long slots;
+        private final long keys;
+
+        private Table(int count, long slots, long keys){
+            this.count = count;
+            this.slots = slots;
+            this.keys = keys;
+        }
+    }
+
+    private static class Posting {
+        private final long offset;
+        private final int length;
+
+        private Posting(long offset, int length){
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Collects where each contact of an address book is written, then writes the lookup.
+     * Country and city values are interned, so the builder holds little more than the CustomerIDs.
+     */
+    public static class Builder {
+        private final ContactFormat format;
+        private final boolean pretty;
+        private final FieldInterner interner = new FieldInterner(FieldInterner.LOW_CARDINALITY);
+        private final List<String[]> keyValues = new ArrayList<>();
+        private long[] offsets = new long[1024];
+        private int[] lengths = new int[1024];
+        private int size;
+
+        /**
+         * @param format format of the address book
+         * @param pretty whether the address book is indented
+         */
+        public Builder(ContactFormat format, boolean pretty){
+            this.format = format;
+            this.pretty = pretty;
+        }
+
+        /**
+         * Records the next contact of the address book
+         * @param offset position of its first byte in the file
+         * @param length length of its serialized form
+         */
+        public void add(Contact contact, long offset, int length){
+            String[] values = new String[INDEXED_FIELDS.size()];
+            for (int i = 0; i < values.length; i++){
+                ContactField field = INDEXED_FIELDS.get(i);
+                String value = field.get(contact);
+                values[i] = interner.intern(field, value == null ? "" : value);
+            }
+            keyValues.add(values);
+            if (size == offsets.length){
+                offsets = Arrays.copyOf(offsets, size * 2);
+                lengths = Arrays.copyOf(lengths, size * 2);
+            }
+            offsets[size] = offset;
+            lengths[size] = length;
+            size++;
+        }
+
+        /**
+         * Writes the lookup next to its address book, replacing any earlier one atomically
+         * @param addressBook indexed file, already complete
+         */
+        public void save(Path addressBook) throws IOException {
+            long bookSize = Files.size(addressBook);
+            long bookModified = Files.getLastModifiedTime(addressBook).toMillis();
+            List<TableData> tables = new ArrayList<>();
+            long position = HEADER_SIZE;
+            for (int i = 0; i < INDEXED_FIELDS.size(); i++){
+                TableData table = new TableData(i, position);
+                tables.add(table);
+                position = table.keys + table.keyBytes;
+            }
+            if (position > Integer.MAX_VALUE){
+                throw new IOException("Lookup of " + size + " contacts exceeds 2 GB");
+            }
+
+            Path file = lookupFile(addressBook);
+            Path temp = ResumableConverter.createTempSibling(file);
+            try {
+                try (DataOutputStream out = new DataOutputStream(
+                        new BufferedOutputStream(Files.newOutputStream(temp), 64 * 1024))) {
+                    out.writeInt(MAGIC);
+                    out.writeInt(VERSION);
+                    out.writeByte(format.ordinal());
+                    out.writeByte(pretty ? 1 : 0);
+                    out.writeLong(bookSize);
+                    out.writeLong(bookModified);
+                    for (TableData table : tables){
+                        out.writeInt(size);
+                        out.writeLong(table.slots);
+                        out.writeLong(table.keys);
+                    }
+                    for (TableData table : tables){
+                        table.write(out);
+                    }
+                }
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        }
+
+        // One field's slots in key order, and its distinct keys
+        private class TableData {
+            private final Integer[] order = new Integer[size];
+            private final List<byte[]> distinct = new ArrayList<>();
+            // Position of each contact's key among the key bytes
+            private final int[] keyPositions = new int[size];
+            private final long slots;
+            private final long keys;
+            private long keyBytes;
+
+            private TableData(int column, long slots){
+                this.slots = slots;
+                keys = slots + (long) size * SLOT_SIZE;
+                Map<String, byte[]> encoded = new HashMap<>();
+                byte[][] contactKeys = new byte[size][];
+                for (int i = 0; i < size; i++){
+                    order[i] = i;
+                    contactKeys[i] = encoded.computeIfAbsent(keyValues.get(i)[column],
+                            value -> value.getBytes(StandardCharsets.UTF_8));
+                }
+                // Stable, so contacts with the same key stay in file order
+                Arrays.sort(order, (a, b) -> compare(contactKeys[a], contactKeys[b]));
+                byte[] previous = null;
+                for (int i : order){
+                    byte[] key = contactKeys[i];
+                    if (previous == null || compare(previous, key) != 0){
+                        distinct.add(key);
+                        if (keyBytes + 4 + key.length > Integer.MAX_VALUE){
+                            throw new IllegalStateException("Lookup keys exceed 2 GB");
+                        }
+                        previous = key;
+                        keyBytes += 4 + key.length;
+                    }
+                    keyPositions[i] = (int) (keyBytes - 4 - key.length);
+                }
+            }
+
+            private void write(DataOutputStream out) throws IOException {
+                for (int i : order){
+                    out.writeInt(keyPositions[i]);
+                    out.writeLong(offsets[i]);
+                    out.writeInt(lengths[i]);
+                }
+                for (byte[] key : distinct){
+                    out.writeInt(key.length);
+                    out.write(key);
+                }
+            }
+        }
+
+        private static int compare(byte[] a, byte[] b){
+            for (int i = 0; i < Math.min(a.length, b.length); i++){
+                int difference = (a[i] & 0xff) - (b[i] & 0xff);
+                if (difference != 0){
+                    return difference;
+                }
+            }
+            return a.length - b.length;
+        }
+    }
+}
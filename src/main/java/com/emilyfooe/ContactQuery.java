@@ -0,0 +1,79 @@
+package com.emilyfooe;
+
+import java.io.BufferedOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Fetches contacts from an address book through its {@link ContactLookup}, e.g.
+ * {@code query --in contacts.json --country Germany --city Berlin}.
+ * Matching contacts are copied out of the address book verbatim and printed as an
+ * address book of the same format, without parsing any of them.
+ * @author Emily Fooe
+ *
+ */
+public class ContactQuery {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Runs the query command
+     * @param options parsed command-line options
+     * @return process exit code, {@link BatchConverter#EXIT_FAILED} if nothing matched
+     */
+    public static int run(CommandOptions options) throws IOException {
+        Path input = Paths.get(options.require("in"));
+        Map<ContactField, String> criteria = new EnumMap<>(ContactField.class);
+        addCriterion(options, "id", ContactField.CUSTOMER_ID, criteria);
+        addCriterion(options, "country", ContactField.COUNTRY, criteria);
+        addCriterion(options, "city", ContactField.CITY, criteria);
+        if (criteria.isEmpty()){
+            throw new IllegalArgumentException("Expected at least one of --id, --country and --city");
+        }
+
+        try (ContactLookup lookup = ContactLookup.open(input)) {
+            if (lookup == null){
+                throw new IllegalArgumentException("No up-to-date lookup for \"" + input
+                        + "\"; convert or merge it with --index first");
+            }
+            List<byte[]> matches = lookup.findSerialized(criteria);
+            try (ContactWriter writer = lookup.getFormat().newWriter(
+                    new BufferedOutputStream(new KeepOpen(System.out), BUFFER_SIZE), lookup.isPretty())) {
+                for (byte[] match : matches){
+                    writer.writeSerialized(match);
+                }
+            }
+            System.out.println();
+            return matches.isEmpty() ? BatchConverter.EXIT_FAILED : BatchConverter.EXIT_OK;
+        }
+    }
+
+    private static void addCriterion(CommandOptions options, String name, ContactField field,
+                                     Map<ContactField, String> criteria){
+        if (options.has(name)){
+            criteria.put(field, options.get(name, null));
+        }
+    }
+
+    // Lets the writer complete its document without closing standard output
+    private static class KeepOpen extends FilterOutputStream {
+        private KeepOpen(OutputStream out){
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) throws IOException {
+            out.write(buffer, offset, length);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.emilyfooe;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Reads contacts from an address book one at a time.
+ * Implementations never hold more than the current contact in memory.
+ * @author Emily Fooe
+ *
+ */
+public interface ContactReader extends Closeable {
+    /**
+     * Reads the next contact in the address book
+     * @return the next contact, or null once the address book is exhausted
+     */
+    Contact read() throws IOException;
+}
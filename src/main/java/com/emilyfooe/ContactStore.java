@@ -0,0 +1,445 @@
+package com.emilyfooe;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Holds a large number of contacts in a fraction of the heap a Contact[] needs.
+ * Each contact is packed into a byte arena as its fields' UTF-8 bytes, each preceded
+ * by a varint of its length plus one (zero for a missing field). The arena is made of
+ * 16 MB segments, allocated off-heap by default, so the garbage collector sees a few
+ * large buffers and one long[] of record offsets instead of thirteen objects per contact.
+ * Contacts are read back through a {@link View}, a reusable Contact whose getters
+ * decode the fields of whichever contact it is positioned on.
+ * A store is filled by one thread; once filled, any number of threads may read it through
+ * views of their own. The packed form doubles as a compact temporary file format, see
+ * {@link View#writeTo}, {@link #writePacked} and {@link #packedReader}.
+ * @author Emily Fooe
+ *
+ */
+public class ContactStore implements Closeable {
+    static final int SEGMENT_SIZE = 16 * 1024 * 1024;
+    private static final int SEGMENT_SHIFT = 32;
+    private static final long POSITION_MASK = 0xFFFFFFFFL;
+
+    private final boolean direct;
+    private final int segmentSize;
+    private final List<ByteBuffer> segments = new ArrayList<>();
+    private ByteBuffer current;
+    // Segment index in the high half and position in the low half, per contact
+    private long[] records = new long[1024];
+    private int size;
+    private long bytesUsed;
+    private byte[] scratch = new byte[512];
+
+    /**
+     * Creates a store with off-heap segments. Their total is limited by -XX:MaxDirectMemorySize,
+     * which defaults to the maximum heap size.
+     */
+    public ContactStore(){
+        this(true);
+    }
+
+    /**
+     * @param direct whether to allocate segments off-heap rather than as heap byte arrays
+     */
+    public ContactStore(boolean direct){
+        this(direct, SEGMENT_SIZE);
+    }
+
+    /**
+     * @param direct whether to allocate segments off-heap rather than as heap byte arrays
+     * @param segmentSize bytes to allocate at a time, e.g. less than the default 16 MB for small stores
+     */
+    public ContactStore(boolean direct, int segmentSize){
+        this.direct = direct;
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * Reads every contact of an address book into a new store
+     * @param reader source of contacts, read to the end but not closed
+     * @param direct whether to allocate segments off-heap
+     */
+    public static ContactStore load(ContactReader reader, boolean direct) throws IOException {
+        ContactStore store = new ContactStore(direct);
+        Contact contact;
+        while ((contact = reader.read()) != null){
+            store.add(contact);
+        }
+        return store;
+    }
+
+    /**
+     * Appends a contact
+     * @return its index in the store
+     */
+    public int add(Contact contact){
+        int length = 0;
+        for (ContactField field : ContactField.FIELDS){
+            String value = field.get(contact);
+            if (value == null){
+                length = ensureScratch(length, 1);
+                scratch[length++] = 0;
+                continue;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            length = ensureScratch(length, 5 + bytes.length);
+            length = writeVarint(scratch, length, bytes.length + 1);
+            System.arraycopy(bytes, 0, scratch, length, bytes.length);
+            length += bytes.length;
+        }
+
+        if (current == null || current.remaining() < length){
+            current = allocate(Math.max(segmentSize, length));
+            segments.add(current);
+        }
+        if (size == records.length){
+            records = Arrays.copyOf(records, size * 2);
+        }
+        records[size] = ((long) (segments.size() - 1) << SEGMENT_SHIFT) | current.position();
+        current.put(scratch, 0, length);
+        bytesUsed += length;
+        return size++;
+    }
+
+    private ByteBuffer allocate(int capacity){
+        return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+
+    private int ensureScratch(int length, int needed){
+        if (length + needed > scratch.length){
+            scratch = Arrays.copyOf(scratch, Math.max(scratch.length * 2, length + needed));
+        }
+        return length;
+    }
+
+    private static int writeVarint(byte[] buffer, int position, int value){
+        while ((value & ~0x7F) != 0){
+            buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+        return position;
+    }
+
+    public int size(){
+        return size;
+    }
+
+    /**
+     * Gets the memory held by the store: its segments and record offsets
+     */
+    public long getMemoryUsed(){
+        long segmentBytes = 0;
+        for (ByteBuffer segment : segments){
+            segmentBytes += segment.capacity();
+        }
+        return segmentBytes + 8L * records.length;
+    }
+
+    /**
+     * Gets the number of bytes taken by packed contacts, excluding unused segment space
+     */
+    public long getBytesUsed(){
+        return bytesUsed;
+    }
+
+    /**
+     * Copies a contact out of the store into an ordinary Contact
+     */
+    public Contact get(int index){
+        View view = view();
+        view.moveTo(index);
+        String[] values = new String[ContactField.COUNT];
+        for (ContactField field : ContactField.FIELDS){
+            values[field.ordinal()] = view.get(field);
+        }
+        return ContactField.toContact(values);
+    }
+
+    /**
+     * Creates a view for reading contacts; each thread needs its own
+     */
+    public View view(){
+        return new View();
+    }
+
+    /**
+     * Reads the contacts in the order they were added. Every contact returned is the
+     * same view, valid until the next call to read, so contacts must be used (e.g. written)
+     * before reading the next rather than collected.
+     */
+    public ContactReader reader(){
+        View view = view();
+        return new ContactReader() {
+            private int next;
+
+            @Override
+            public Contact read() {
+                if (next >= size){
+                    return null;
+                }
+                view.moveTo(next++);
+                return view;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    /**
+     * Writes any contact in the packed form, as {@link View#writeTo} does for a stored one
+     */
+    public static void writePacked(Contact contact, OutputStream out) throws IOException {
+        byte[] length = new byte[5];
+        for (ContactField field : ContactField.FIELDS){
+            String value = field.get(contact);
+            if (value == null){
+                out.write(0);
+                continue;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.write(length, 0, writeVarint(length, 0, bytes.length + 1));
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Reads contacts written by {@link View#writeTo} or {@link #writePacked} until the end of a stream
+     * @param input packed contacts, closed along with the reader
+     */
+    public static ContactReader packedReader(InputStream input){
+        return new ContactReader() {
+            private byte[] bytes = new byte[256];
+
+            @Override
+            public Contact read() throws IOException {
+                String[] values = new String[ContactField.COUNT];
+                for (int i = 0; i < ContactField.COUNT; i++){
+                    int length = readVarint(input, i == 0);
+                    if (length < 0){
+                        return null;
+                    }
+                    if (length == 0){
+                        continue;
+                    }
+                    if (bytes.length < length - 1){
+                        bytes = new byte[Math.max(bytes.length * 2, length - 1)];
+                    }
+                    readFully(input, bytes, length - 1);
+                    values[i] = new String(bytes, 0, length - 1, StandardCharsets.UTF_8);
+                }
+                return ContactField.toContact(values);
+            }
+
+            @Override
+            public void close() throws IOException {
+                input.close();
+            }
+        };
+    }
+
+    // Returns -1 at the end of the stream, if that is allowed before this varint
+    private static int readVarint(InputStream input, boolean endAllowed) throws IOException {
+        int value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = input.read();
+            if (b < 0){
+                if (endAllowed && shift == 0){
+                    return -1;
+                }
+                throw new EOFException("Truncated packed contact");
+            }
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    private static void readFully(InputStream input, byte[] bytes, int length) throws IOException {
+        int read = 0;
+        while (read < length){
+            int count = input.read(bytes, read, length - read);
+            if (count < 0){
+                throw new EOFException("Truncated packed contact");
+            }
+            read += count;
+        }
+    }
+
+    /**
+     * Releases the segments. Off-heap memory is returned once they are garbage collected.
+     */
+    @Override
+    public void close(){
+        segments.clear();
+        current = null;
+        records = new long[0];
+        size = 0;
+    }
+
+    /**
+     * A Contact backed by the store, decoding fields on each call to a getter.
+     * Repositioning the view changes the contact it represents.
+     */
+    public class View extends Contact {
+        // Read-only duplicates, so views do not share buffer positions
+        private final ByteBuffer[] buffers = new ByteBuffer[segments.size()];
+        private final int[] starts = new int[ContactField.COUNT];
+        // Field lengths plus one; zero for a missing field
+        private final int[] lengths = new int[ContactField.COUNT];
+        private ByteBuffer buffer;
+        private int index = -1;
+        private int recordStart;
+        private int recordEnd;
+
+        private View(){
+        }
+
+        /**
+         * Positions the view on a contact
+         * @param index index returned by {@link ContactStore#add}
+         */
+        public void moveTo(int index){
+            if (index < 0 || index >= size){
+                throw new IndexOutOfBoundsException("Contact " + index + " of " + size);
+            }
+            this.index = index;
+            long record = records[index];
+            buffer = buffer((int) (record >>> SEGMENT_SHIFT));
+            int position = (int) (record & POSITION_MASK);
+            recordStart = position;
+            for (int i = 0; i < ContactField.COUNT; i++){
+                int value = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = buffer.get(position++);
+                    value |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                lengths[i] = value;
+                starts[i] = position;
+                position += Math.max(0, value - 1);
+            }
+            recordEnd = position;
+        }
+
+        private ByteBuffer buffer(int segment){
+            ByteBuffer[] cache = buffers;
+            if (segment < cache.length && cache[segment] != null){
+                return cache[segment];
+            }
+            // Segments added after the view was created are not cached
+            ByteBuffer duplicate = segments.get(segment).asReadOnlyBuffer();
+            if (segment < cache.length){
+                cache[segment] = duplicate;
+            }
+            return duplicate;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        /**
+         * Writes the current contact in its packed form
+         */
+        public void writeTo(OutputStream out) throws IOException {
+            byte[] bytes = new byte[recordEnd - recordStart];
+            buffer.position(recordStart);
+            buffer.get(bytes);
+            out.write(bytes);
+        }
+
+        /**
+         * Decodes a field of the current contact
+         * @return the value, or null if the field is missing
+         */
+        public String get(ContactField field){
+            int length = lengths[field.ordinal()];
+            if (length == 0){
+                return null;
+            }
+            byte[] bytes = new byte[length - 1];
+            buffer.position(starts[field.ordinal()]);
+            buffer.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        //region Getters
+        @Override
+        public String getCustomerId() {
+            return get(ContactField.CUSTOMER_ID);
+        }
+
+        @Override
+        public String getCompanyName() {
+            return get(ContactField.COMPANY_NAME);
+        }
+
+        @Override
+        public String getContactName() {
+            return get(ContactField.CONTACT_NAME);
+        }
+
+        @Override
+        public String getContactTitle() {
+            return get(ContactField.CONTACT_TITLE);
+        }
+
+        @Override
+        public String getAddress() {
+            return get(ContactField.ADDRESS);
+        }
+
+        @Override
+        public String getCity() {
+            return get(ContactField.CITY);
+        }
+
+        @Override
+        public String getEmail() {
+            return get(ContactField.EMAIL);
+        }
+
+        @Override
+        public String getRegion() {
+            return get(ContactField.REGION);
+        }
+
+        @Override
+        public String getPostalCode() {
+            return get(ContactField.POSTAL_CODE);
+        }
+
+        @Override
+        public String getCountry() {
+            return get(ContactField.COUNTRY);
+        }
+
+        @Override
+        public String getPhone() {
+            return get(ContactField.PHONE);
+        }
+
+        @Override
+        public String getFax() {
+            return get(ContactField.FAX);
+        }
+        //endregion
+    }
+}
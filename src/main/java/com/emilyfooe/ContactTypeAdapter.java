@@ -0,0 +1,68 @@
+package com.emilyfooe;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+
+/**
+ * Reads and writes a Contact field by field through the ContactField table,
+ * replacing Gson's reflective adapter. Field names and null handling match
+ * reflective serialization, so output is unchanged.
+ * @author Emily Fooe
+ *
+ */
+public class ContactTypeAdapter extends TypeAdapter<Contact> {
+    /** Stateless, so one instance serves every thread */
+    public static final ContactTypeAdapter INSTANCE = new ContactTypeAdapter(FieldInterner.NONE);
+
+    private final FieldInterner interner;
+
+    /**
+     * @param interner shares repeated field values between the contacts read
+     */
+    public ContactTypeAdapter(FieldInterner interner){
+        this.interner = interner;
+    }
+
+    @Override
+    public void write(JsonWriter writer, Contact contact) throws IOException {
+        if (contact == null){
+            writer.nullValue();
+            return;
+        }
+        writer.beginObject();
+        for (ContactField field : ContactField.FIELDS){
+            String value = field.get(contact);
+            // Missing fields are omitted, as Gson does for null values
+            if (value != null){
+                writer.name(field.getJsonName()).value(value);
+            }
+        }
+        writer.endObject();
+    }
+
+    // Missing fields stay null, as with Gson's reflective deserialization
+    @Override
+    public Contact read(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL){
+            reader.nextNull();
+            return null;
+        }
+        String[] values = new String[ContactField.COUNT];
+        reader.beginObject();
+        while (reader.hasNext()){
+            ContactField field = ContactField.forJsonName(reader.nextName());
+            if (field == null || reader.peek() == JsonToken.NULL){
+                reader.skipValue();
+                continue;
+            }
+            values[field.ordinal()] = reader.nextString();
+        }
+        reader.endObject();
+        interner.internAll(values);
+        return ContactField.toContact(values);
+    }
+}
@@ -0,0 +1,32 @@
+package com.emilyfooe;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+
+/**
+ * Writes contacts to an address book one at a time.
+ * Closing the writer completes the document and closes the underlying stream.
+ * @author Emily Fooe
+ *
+ */
+public interface ContactWriter extends Closeable, Flushable {
+    /**
+     * Appends a contact to the address book
+     * @param contact contact to write
+     */
+    void write(Contact contact) throws IOException;
+
+    /**
+     * Appends a contact already serialized by {@link ContactFormat#serialize}, e.g. copied
+     * verbatim from an earlier output, adding whatever separates it from the previous contact
+     * @param contact serialized contact, in the format and layout of this writer
+     */
+    void writeSerialized(byte[] contact) throws IOException;
+
+    /**
+     * Pushes everything written so far to the underlying stream
+     */
+    @Override
+    void flush() throws IOException;
+}
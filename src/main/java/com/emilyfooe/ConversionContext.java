@@ -0,0 +1,292 @@
+package com.emilyfooe;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXNotRecognizedException;
+import org.xml.sax.SAXNotSupportedException;
+import org.xml.sax.XMLReader;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+import javax.xml.validation.Validator;
+import javax.xml.validation.ValidatorHandler;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Owns the parser, serializer and schema machinery that every conversion path uses, so
+ * factories are looked up through the service loader once per process instead of once per file.
+ * Components that are thread-safe once configured (the StAX factories, compiled schemas and Gson)
+ * are shared. Document builders, SAX parsers and validators are not, so each thread keeps its own,
+ * reset before every use; pool threads that convert many small files pay for them only once.
+ * The factories those come from are not thread-safe either, and are only used under their lock.
+ * @author Emily Fooe
+ *
+ */
+public class ConversionContext {
+    private static final ConversionContext DEFAULT = new ConversionContext();
+    private static final String DISALLOW_DOCTYPE = "http://apache.org/xml/features/disallow-doctype-decl";
+
+    private final XMLInputFactory xmlInputFactory = createXmlInputFactory();
+    private final XMLOutputFactory xmlOutputFactory = XMLOutputFactory.newInstance();
+    private final DocumentBuilderFactory documentBuilderFactory = createDocumentBuilderFactory();
+    private final SAXParserFactory saxParserFactory = createSaxParserFactory();
+    private final SchemaFactory schemaFactory = createSchemaFactory();
+    private final Map<Path, CompiledSchema> schemas = new ConcurrentHashMap<>();
+    private final ThreadLocal<DocumentBuilder> documentBuilders = new ThreadLocal<>();
+    private final ThreadLocal<SAXParser> saxParsers = new ThreadLocal<>();
+    private final ThreadLocal<ValidatorSlot> validatorSlots = ThreadLocal.withInitial(ValidatorSlot::new);
+    // Contact[] arrays keep every contact, so their repeated values are shared
+    private volatile FieldInterner interner = new FieldInterner(FieldInterner.LOW_CARDINALITY);
+    private volatile Gson gson = createGson(interner);
+
+    /**
+     * Gets the context shared by every conversion in this process
+     */
+    public static ConversionContext getDefault(){
+        return DEFAULT;
+    }
+
+    /**
+     * Gets the StAX input factory, which ignores DTDs, so any entity besides the predefined ones fails the read
+     */
+    public XMLInputFactory getXmlInputFactory() {
+        return xmlInputFactory;
+    }
+
+    public XMLOutputFactory getXmlOutputFactory() {
+        return xmlOutputFactory;
+    }
+
+    /**
+     * Gets the calling thread's document builder, reset to its initial state
+     */
+    public DocumentBuilder getDocumentBuilder() throws ParserConfigurationException {
+        DocumentBuilder builder = documentBuilders.get();
+        if (builder == null){
+            synchronized (documentBuilderFactory){
+                builder = documentBuilderFactory.newDocumentBuilder();
+            }
+            documentBuilders.set(builder);
+        } else {
+            builder.reset();
+        }
+        return builder;
+    }
+
+    /**
+     * Gets the calling thread's namespace-aware SAX reader, reset to its initial state
+     */
+    public XMLReader getXmlReader() throws SAXException {
+        SAXParser parser = saxParsers.get();
+        if (parser == null){
+            try {
+                synchronized (saxParserFactory){
+                    parser = saxParserFactory.newSAXParser();
+                }
+            } catch (ParserConfigurationException e) {
+                throw new SAXException(e);
+            }
+            saxParsers.set(parser);
+        } else {
+            parser.reset();
+        }
+        return parser.getXMLReader();
+    }
+
+    /**
+     * Gets the compiled form of a schema, compiling it on first use or if it changed on disk
+     * @param schemaFile .xsd file
+     */
+    public Schema getSchema(Path schemaFile) throws SAXException, IOException {
+        Path key = schemaFile.toAbsolutePath().normalize();
+        long modified = Files.getLastModifiedTime(key).toMillis();
+        CompiledSchema cached = schemas.get(key);
+        if (cached != null && cached.modified == modified){
+            return cached.schema;
+        }
+        return compile(key, modified);
+    }
+
+    // Concurrent callers share one compilation
+    private Schema compile(Path schemaFile, long modified) throws SAXException {
+        synchronized (schemaFactory){
+            CompiledSchema cached = schemas.get(schemaFile);
+            if (cached == null || cached.modified != modified){
+                cached = new CompiledSchema(schemaFactory.newSchema(schemaFile.toFile()), modified);
+                schemas.put(schemaFile, cached);
+            }
+            return cached.schema;
+        }
+    }
+
+    /**
+     * Gets the calling thread's validator for a schema, without an error handler
+     * @param schema compiled schema
+     */
+    public Validator getValidator(Schema schema){
+        ValidatorSlot slot = getValidatorSlot(schema);
+        if (slot.validator == null){
+            slot.validator = newValidator(schema);
+        }
+        slot.validator.setErrorHandler(null);
+        return slot.validator;
+    }
+
+    /**
+     * Gets the calling thread's validator handler for a schema, which resets itself
+     * at the start of every document
+     * @param schema compiled schema
+     */
+    public ValidatorHandler getValidatorHandler(Schema schema){
+        ValidatorSlot slot = getValidatorSlot(schema);
+        if (slot.handler == null){
+            slot.handler = newValidatorHandler(schema);
+        }
+        return slot.handler;
+    }
+
+    // Validators hold their schema, so a thread keeps only those of the last schema it used;
+    // one recompiled or used in between replaces them instead of piling up
+    private ValidatorSlot getValidatorSlot(Schema schema){
+        ValidatorSlot slot = validatorSlots.get();
+        if (slot.schema != schema){
+            slot.schema = schema;
+            slot.validator = null;
+            slot.handler = null;
+        }
+        return slot;
+    }
+
+    // Validators parse documents themselves, so they are barred from fetching external DTDs and entities
+    private static Validator newValidator(Schema schema){
+        Validator validator = schema.newValidator();
+        try {
+            validator.setProperty(XMLConstants.ACCESS_EXTERNAL_DTD, "");
+            validator.setProperty(XMLConstants.ACCESS_EXTERNAL_SCHEMA, "");
+        } catch (SAXNotRecognizedException | SAXNotSupportedException e) {
+            // Required of every JAXP 1.5 implementation
+            throw new IllegalStateException(e);
+        }
+        return validator;
+    }
+
+    private static ValidatorHandler newValidatorHandler(Schema schema){
+        ValidatorHandler handler = schema.newValidatorHandler();
+        try {
+            handler.setProperty(XMLConstants.ACCESS_EXTERNAL_DTD, "");
+            handler.setProperty(XMLConstants.ACCESS_EXTERNAL_SCHEMA, "");
+        } catch (SAXNotRecognizedException | SAXNotSupportedException e) {
+            // Required of every JAXP 1.5 implementation
+            throw new IllegalStateException(e);
+        }
+        return handler;
+    }
+
+    /**
+     * Gets the interner shared by the Contact[] conversions, e.g. for its statistics
+     */
+    public FieldInterner getInterner(){
+        return interner;
+    }
+
+    /**
+     * Chooses which fields the Contact[] conversions intern; {@link FieldInterner#LOW_CARDINALITY} by default
+     */
+    public void setInterner(FieldInterner fieldInterner){
+        interner = fieldInterner;
+        gson = createGson(fieldInterner);
+    }
+
+    /**
+     * Gets the Gson instance of the Contact[] conversions, which interns through {@link #getInterner()}
+     */
+    public Gson getGson() {
+        return gson;
+    }
+
+    // Built once per interner; the registered adapter replaces reflection on every contact
+    private static Gson createGson(FieldInterner fieldInterner){
+        return new GsonBuilder()
+                .registerTypeAdapter(Contact.class, new ContactTypeAdapter(fieldInterner))
+                .create();
+    }
+
+    // Address books are self-contained, so entities are never resolved, external or not; an entity
+    // reference is reported as undeclared rather than silently dropped
+    private static XMLInputFactory createXmlInputFactory(){
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        return factory;
+    }
+
+    // Documents with a DOCTYPE are rejected outright, which rules out external entities and entity expansion
+    private static SAXParserFactory createSaxParserFactory(){
+        SAXParserFactory factory = SAXParserFactory.newInstance();
+        factory.setNamespaceAware(true);
+        try {
+            factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            factory.setFeature(DISALLOW_DOCTYPE, true);
+        } catch (ParserConfigurationException | SAXNotRecognizedException | SAXNotSupportedException e) {
+            // Supported by the JDK's parser
+            throw new IllegalStateException(e);
+        }
+        return factory;
+    }
+
+    private static DocumentBuilderFactory createDocumentBuilderFactory(){
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        try {
+            factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            factory.setFeature(DISALLOW_DOCTYPE, true);
+        } catch (ParserConfigurationException e) {
+            // Supported by the JDK's parser
+            throw new IllegalStateException(e);
+        }
+        return factory;
+    }
+
+    // Schemas are self-contained too: nothing they include, import or declare is fetched
+    private static SchemaFactory createSchemaFactory(){
+        SchemaFactory factory = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
+        try {
+            factory.setProperty(XMLConstants.ACCESS_EXTERNAL_DTD, "");
+            factory.setProperty(XMLConstants.ACCESS_EXTERNAL_SCHEMA, "");
+        } catch (SAXNotRecognizedException | SAXNotSupportedException e) {
+            // Required of every JAXP 1.5 implementation
+            throw new IllegalStateException(e);
+        }
+        return factory;
+    }
+
+    // The calling thread's validator and validator handler, each built on first use, for one schema
+    private static class ValidatorSlot {
+        private Schema schema;
+        private Validator validator;
+        private ValidatorHandler handler;
+    }
+
+    private static class CompiledSchema {
+        private final Schema schema;
+        private final long modified;
+
+        private CompiledSchema(Schema schema, long modified){
+            this.schema = schema;
+            this.modified = modified;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.emilyfooe;
+
+/**
+ * Receives progress of a conversion, e.g. to render a progress bar or record metrics.
+ * Callbacks are made on the converting thread, so they should be quick; progress
+ * is reported every {@link #PROGRESS_INTERVAL} contacts rather than for each one.
+ * A listener shared by concurrent conversions must be thread-safe.
+ * @author Emily Fooe
+ *
+ */
+public interface ConversionListener {
+    int PROGRESS_INTERVAL = 1024;
+
+    ConversionListener NONE = new ConversionListener() {
+    };
+
+    /**
+     * Called before the first contact is read
+     */
+    default void onStart(ConversionProgress progress) {
+    }
+
+    /**
+     * Called periodically while contacts are converted
+     */
+    default void onProgress(ConversionProgress progress) {
+    }
+
+    /**
+     * Called for each recoverable error, such as a collected validation error
+     */
+    default void onError(ConversionProgress progress, Exception error) {
+    }
+
+    /**
+     * Called once the output is complete
+     */
+    default void onFinish(ConversionProgress progress) {
+    }
+
+    /**
+     * Called instead of onFinish when the conversion is abandoned
+     */
+    default void onFailure(ConversionProgress progress, Exception error) {
+    }
+}
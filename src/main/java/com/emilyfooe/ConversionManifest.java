@@ -0,0 +1,237 @@
+package com.emilyfooe;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Record of earlier conversions into an output directory, used to skip inputs
+ * that have not changed since. Each line holds the input path, its size,
+ * modification time and SHA-256 hash, the output file and the options used,
+ * separated by tabs. Lines that cannot be parsed are ignored, so a damaged
+ * manifest only costs a reconversion.
+ * @author Emily Fooe
+ *
+ */
+public class ConversionManifest {
+    public static final String FILE_NAME = ".conversion-manifest";
+    private static final String SEPARATOR = "\t";
+    private static final int HASH_BUFFER_SIZE = 64 * 1024;
+
+    private final Path file;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    private ConversionManifest(Path file){
+        this.file = file;
+    }
+
+    /**
+     * Reads the manifest of an output directory
+     * @param outputDirectory directory the manifest is kept in
+     * @return the manifest, empty if there is none yet
+     */
+    public static ConversionManifest load(Path outputDirectory) throws IOException {
+        ConversionManifest manifest = new ConversionManifest(outputDirectory.resolve(FILE_NAME));
+        try (BufferedReader reader = Files.newBufferedReader(manifest.file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null){
+                Entry entry = Entry.parse(line);
+                if (entry != null){
+                    manifest.entries.put(entry.input, entry);
+                }
+            }
+        } catch (NoSuchFileException e) {
+            // First run into this directory
+        }
+        return manifest;
+    }
+
+    /**
+     * Determines whether an input can be skipped. Inputs whose size and modification time
+     * are unchanged are trusted without reading them; otherwise the content hash decides.
+     * @param input input about to be converted
+     * @param output file it would be converted to
+     * @param options options affecting the output, e.g. "json,pretty"
+     * @return the entry to record for the input if it is unchanged and its output still
+     *         exists, or null if it must be converted
+     */
+    public Entry findUnchanged(Path input, Path output, String options) throws IOException {
+        Entry entry = entries.get(key(input));
+        if (entry == null || !entry.output.equals(output.getFileName().toString())
+                || !entry.options.equals(options) || !Files.exists(output)){
+            return null;
+        }
+        long size = Files.size(input);
+        long modified = Files.getLastModifiedTime(input).toMillis();
+        if (entry.size == size && entry.modified == modified){
+            return entry;
+        }
+        // Touched or copied, but possibly the same content
+        return entry.size == size && entry.hash.equals(hash(input))
+                ? new Entry(entry.input, size, modified, entry.hash, entry.output, options) : null;
+    }
+
+    /**
+     * Describes an input that has just been converted. Its size and modification time must be
+     * taken before the conversion starts reading it, and its hash from the bytes it read, so that
+     * an input modified meanwhile is not recorded as converted.
+     * @param input input that was converted
+     * @param size its size before it was read
+     * @param modified its modification time before it was read, in milliseconds
+     * @param digest digest from {@link #newDigest()}, updated with every byte of the input
+     * @param output file it was converted to
+     * @param options options affecting the output
+     * @return the entry, or null if the input has changed since it was first looked at, as
+     *         its output may then hold either version
+     */
+    public static Entry describe(Path input, long size, long modified, MessageDigest digest, Path output,
+                                 String options) throws IOException {
+        if (Files.size(input) != size || Files.getLastModifiedTime(input).toMillis() != modified){
+            return null;
+        }
+        return new Entry(key(input), size, modified, toHex(digest), output.getFileName().toString(), options);
+    }
+
+    public void put(Entry entry){
+        entries.put(entry.input, entry);
+    }
+
+    public void remove(Path input){
+        entries.remove(key(input));
+    }
+
+    /**
+     * Writes the manifest, dropping inputs that no longer exist. The file is replaced
+     * atomically, so an interrupted run leaves the previous manifest intact.
+     */
+    public void save() throws IOException {
+        Map<String, Entry> sorted = new TreeMap<>(entries);
+        Path temp = ResumableConverter.createTempSibling(file);
+        try {
+            try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                for (Entry entry : sorted.values()){
+                    // Paths with tabs or line breaks cannot be recorded, so those inputs are always converted
+                    if (!entry.input.contains(SEPARATOR) && !entry.input.contains("\n")
+                            && Files.exists(Paths.get(entry.input))){
+                        writer.write(entry.toString());
+                        writer.newLine();
+                    }
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Hashes a file's content with SHA-256
+     * @return the hash as lowercase hex
+     */
+    public static String hash(Path file) throws IOException {
+        MessageDigest digest = newDigest();
+        update(digest, file, 0);
+        return toHex(digest);
+    }
+
+    /**
+     * Creates a digest to hash an input with while it is converted
+     */
+    public static MessageDigest newDigest(){
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Hashes the rest of a file, e.g. what a conversion left unread after the last contact
+     * @param digest digest to update
+     * @param file file to read
+     * @param offset position to read from
+     */
+    public static void update(MessageDigest digest, Path file, long offset) throws IOException {
+        byte[] buffer = new byte[HASH_BUFFER_SIZE];
+        try (InputStream input = MappedInputStream.open(file)) {
+            long skipped = 0;
+            while (skipped < offset){
+                long n = input.skip(offset - skipped);
+                if (n <= 0){
+                    return;
+                }
+                skipped += n;
+            }
+            int read;
+            while ((read = input.read(buffer)) > 0){
+                digest.update(buffer, 0, read);
+            }
+        }
+    }
+
+    // Completes a digest as lowercase hex
+    private static String toHex(MessageDigest digest){
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()){
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    // Inputs are identified by absolute path, as several input directories may share an output directory
+    private static String key(Path input){
+        return input.toAbsolutePath().normalize().toString();
+    }
+
+    /**
+     * One converted input
+     */
+    public static class Entry {
+        private final String input;
+        private final long size;
+        private final long modified;
+        private final String hash;
+        private final String output;
+        private final String options;
+
+        private Entry(String input, long size, long modified, String hash, String output, String options){
+            this.input = input;
+            this.size = size;
+            this.modified = modified;
+            this.hash = hash;
+            this.output = output;
+            this.options = options;
+        }
+
+        private static Entry parse(String line){
+            String[] fields = line.split(SEPARATOR, -1);
+            if (fields.length != 6){
+                return null;
+            }
+            try {
+                return new Entry(fields[0], Long.parseLong(fields[1]), Long.parseLong(fields[2]), fields[3],
+                        fields[4], fields[5]);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public String toString(){
+            return String.join(SEPARATOR, input, Long.toString(size), Long.toString(modified), hash, output, options);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.emilyfooe;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Live counters of a single conversion.
+ * Updated only by the converting thread; listeners that aggregate across
+ * threads should copy the values they need inside their callbacks.
+ * @author Emily Fooe
+ *
+ */
+public class ConversionProgress {
+    private final String name;
+    private final long totalBytes;
+    private final LongSupplier bytesRead;
+    private final LongSupplier bytesWritten;
+    private final long startNanos = System.nanoTime();
+    private long contacts;
+    private long errors;
+
+    /**
+     * @param name name of the input, e.g. its file name
+     * @param totalBytes size of the input, or -1 if unknown
+     * @param bytesRead bytes of input consumed so far
+     * @param bytesWritten bytes of output produced so far
+     */
+    public ConversionProgress(String name, long totalBytes, LongSupplier bytesRead, LongSupplier bytesWritten){
+        this.name = name;
+        this.totalBytes = totalBytes;
+        this.bytesRead = bytesRead;
+        this.bytesWritten = bytesWritten;
+    }
+
+    /**
+     * Tracks a conversion between two counted streams
+     */
+    public ConversionProgress(String name, long totalBytes, CountingInputStream input, CountingOutputStream output){
+        this(name, totalBytes, input::getCount, output::getCount);
+    }
+
+    public void addContacts(long count){
+        contacts += count;
+    }
+
+    public void addError(){
+        errors++;
+    }
+
+    //region Getters
+    public String getName() {
+        return name;
+    }
+
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public long getBytesRead() {
+        return bytesRead.getAsLong();
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten.getAsLong();
+    }
+
+    public long getContacts() {
+        return contacts;
+    }
+
+    public long getErrors() {
+        return errors;
+    }
+
+    public long getElapsedNanos() {
+        return System.nanoTime() - startNanos;
+    }
+    //endregion
+}
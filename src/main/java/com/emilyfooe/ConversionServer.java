@@ -0,0 +1,457 @@
+package com.emilyfooe;
+
+import com.google.gson.stream.JsonWriter;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+
+import javax.xml.validation.Schema;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Serves conversions and validations over HTTP from a long-running JVM, so callers get
+ * warmed-up code and cached schemas instead of paying for a JVM start per file, e.g.
+ * {@code serve --port 8080 --threads 8}. Endpoints:
+ * <ul>
+ *     <li>{@code POST /convert?to=json|ndjson|xml|binary[&from=xml|json|ndjson|binary][&compact][&validate[&schema=name.xsd]]}
+ *     streams the request body through the converter into the response. The source format is
+ *     taken from {@code from} or the Content-Type.</li>
+ *     <li>{@code POST /validate[?schema=name.xsd]} answers with a JSON report of every error,
+ *     status 200 if the address book is valid and 422 if not.</li>
+ *     <li>{@code GET /status} reports the worker pool's load.</li>
+ * </ul>
+ * Bodies may be gzipped (Content-Encoding: gzip), and responses are gzipped for clients that accept it.
+ * Requests run on a fixed pool of workers behind a bounded queue. Once the queue is full, requests
+ * are turned away at once with 503 and Retry-After instead of piling up, which keeps latency and
+ * memory bounded under load. Schemas are named relative to the schema directory and compiled once,
+ * see {@link SchemaValidator#getSchema}.
+ * <p>
+ * Responses are buffered until 64 KB have been written, so a malformed address book is usually
+ * answered with 400 and a message. Errors found later drop the connection without ending the
+ * chunked body, so the client's read fails instead of returning a truncated document as complete.
+ * @author Emily Fooe
+ *
+ */
+public class ConversionServer {
+    public static final int DEFAULT_PORT = 8080;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int STATUS_OK = 200;
+    private static final int STATUS_BAD_REQUEST = 400;
+    private static final int STATUS_METHOD_NOT_ALLOWED = 405;
+    private static final int STATUS_UNPROCESSABLE = 422;
+    private static final int STATUS_INTERNAL_ERROR = 500;
+    private static final int STATUS_UNAVAILABLE = 503;
+    // Used in error reports in place of a file name
+    private static final Path REQUEST = Paths.get("request.xml");
+
+    private final HttpServer server;
+    private final ThreadPoolExecutor workers;
+    private final Path schemaDirectory;
+    private final String defaultSchema;
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * Creates a server; call {@link #start()} to accept requests
+     * @param address address to listen on, e.g. port 8080 of the loopback interface
+     * @param threads number of workers converting requests concurrently
+     * @param queueCapacity number of requests that may wait for a worker before others are turned away
+     * @param schemaDirectory directory that schema names are resolved in
+     * @param defaultSchema schema used when a request names none
+     */
+    public ConversionServer(InetSocketAddress address, int threads, int queueCapacity, Path schemaDirectory,
+                            String defaultSchema) throws IOException {
+        this.schemaDirectory = schemaDirectory.toAbsolutePath().normalize();
+        this.defaultSchema = defaultSchema;
+        workers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity));
+        server = HttpServer.create(address, 0);
+        // Handlers run on the server's dispatcher thread and only hand requests to the workers
+        server.createContext("/convert", exchange -> dispatch(exchange, "POST", this::convert));
+        server.createContext("/validate", exchange -> dispatch(exchange, "POST", this::validate));
+        server.createContext("/status", exchange -> status(exchange));
+    }
+
+    /**
+     * Runs the serve command until the process is stopped
+     * @param options parsed command-line options
+     * @return process exit code
+     */
+    public static int run(CommandOptions options) throws IOException, InterruptedException {
+        int port = options.getInt("port", DEFAULT_PORT);
+        String host = options.get("host", "127.0.0.1");
+        int threads = options.getInt("threads", Runtime.getRuntime().availableProcessors());
+        if (threads < 1){
+            throw new IllegalArgumentException("Option --threads must be at least 1");
+        }
+        int queue = options.getInt("queue", 4 * threads);
+        if (queue < 1){
+            throw new IllegalArgumentException("Option --queue must be at least 1");
+        }
+        Path schema = Paths.get(options.get("schema", "schemas/contact.xsd"));
+        Path schemaDirectory = schema.toAbsolutePath().getParent();
+
+        ConversionServer server = new ConversionServer(new InetSocketAddress(host, port), threads, queue,
+                schemaDirectory, schema.getFileName().toString());
+        CountDownLatch stopped = new CountDownLatch(1);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop(5);
+            stopped.countDown();
+        }));
+        server.start();
+        System.out.printf("Listening on http://%s:%d with %d worker(s)\n", host, server.getPort(), threads);
+        stopped.await();
+        return BatchConverter.EXIT_OK;
+    }
+
+    public void start(){
+        server.start();
+    }
+
+    /**
+     * Stops accepting requests and waits for those in progress to finish
+     * @param seconds longest time to wait
+     */
+    public void stop(int seconds){
+        // Queued requests still run; new ones are turned away until the server stops listening
+        workers.shutdown();
+        server.stop(seconds);
+        try {
+            workers.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        workers.shutdownNow();
+    }
+
+    /**
+     * Gets the port listened on, e.g. the one chosen when created with port 0
+     */
+    public int getPort(){
+        return server.getAddress().getPort();
+    }
+
+    // Hands a request to a worker, or turns it away if the queue is full
+    private void dispatch(HttpExchange exchange, String method, Handler handler) throws IOException {
+        if (!exchange.getRequestMethod().equals(method)){
+            exchange.getResponseHeaders().set("Allow", method);
+            sendText(exchange, STATUS_METHOD_NOT_ALLOWED, "Use " + method);
+            return;
+        }
+        try {
+            workers.execute(() -> handle(exchange, handler));
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            exchange.getResponseHeaders().set("Retry-After", "1");
+            exchange.getResponseHeaders().set("Connection", "close");
+            sendText(exchange, STATUS_UNAVAILABLE, "Server busy, retry later");
+        }
+    }
+
+    private void handle(HttpExchange exchange, Handler handler){
+        Response response = new Response(exchange);
+        try {
+            handler.handle(exchange, parseQuery(exchange), response);
+        } catch (IllegalArgumentException | IOException e) {
+            fail(response, STATUS_BAD_REQUEST, e);
+        } catch (SAXException e) {
+            fail(response, e instanceof SAXParseException ? STATUS_UNPROCESSABLE : STATUS_INTERNAL_ERROR, e);
+        } catch (RuntimeException e) {
+            fail(response, STATUS_INTERNAL_ERROR, e);
+        } finally {
+            completed.increment();
+            exchange.close();
+        }
+    }
+
+    // Reports a failure, or cuts the response short if it has already started
+    private static void fail(Response response, int status, Exception e){
+        if (response.started){
+            abort(response.exchange);
+            return;
+        }
+        try {
+            sendText(response.exchange, status, e.getMessage());
+        } catch (IOException ignored) {
+            // The client is gone
+        }
+    }
+
+    // Makes closing the exchange drop the connection instead of sending the last chunk, which would
+    // mark the body complete; the server closes the connection whenever closing the body fails
+    private static void abort(HttpExchange exchange){
+        exchange.setStreams(null, new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("Response aborted");
+            }
+
+            @Override
+            public void close() throws IOException {
+                throw new IOException("Response aborted");
+            }
+        });
+    }
+
+    private void convert(HttpExchange exchange, Map<String, String> query, Response response)
+            throws IOException, SAXException {
+        ContactFormat target = ContactFormat.forName(require(query, "to"));
+        ContactFormat source = getSourceFormat(exchange, query);
+        boolean pretty = !query.containsKey("compact");
+        Schema schema = null;
+        if (query.containsKey("validate")){
+            if (source != ContactFormat.XML){
+                throw new IllegalArgumentException("Only XML can be validated");
+            }
+            schema = getSchema(query);
+        }
+
+        exchange.getResponseHeaders().set("Content-Type", contentType(target));
+        try (InputStream input = requestBody(exchange);
+             ContactWriter writer = target.newWriter(responseBody(exchange, response), pretty)) {
+            try {
+                if (schema != null){
+                    ValidatingXmlConverter.convert(input, REQUEST, schema, writer, null);
+                } else {
+                    try (ContactReader reader = source.newReader(input)) {
+                        StreamingConverter.convert(reader, writer);
+                    }
+                }
+            } catch (IOException | SAXException | RuntimeException e) {
+                // Closing the writer completes the document, which must then not reach the client
+                response.discard();
+                throw e;
+            }
+        }
+    }
+
+    private void validate(HttpExchange exchange, Map<String, String> query, Response response)
+            throws IOException, SAXException {
+        Schema schema = getSchema(query);
+        List<ValidationError> errors;
+        try (InputStream input = requestBody(exchange)) {
+            errors = SchemaValidator.collectErrors(schema, input, REQUEST);
+        }
+        response.status = errors.isEmpty() ? STATUS_OK : STATUS_UNPROCESSABLE;
+        exchange.getResponseHeaders().set("Content-Type", contentType(ContactFormat.JSON));
+        try (JsonWriter writer = new JsonWriter(new OutputStreamWriter(responseBody(exchange, response),
+                StandardCharsets.UTF_8))) {
+            writer.beginObject();
+            writer.name("valid").value(errors.isEmpty());
+            writer.name("errors").beginArray();
+            for (ValidationError error : errors){
+                writer.beginObject();
+                writer.name("line").value(error.getLine());
+                writer.name("column").value(error.getColumn());
+                writer.name("message").value(error.getMessage());
+                writer.endObject();
+            }
+            writer.endArray();
+            writer.endObject();
+        }
+    }
+
+    private void status(HttpExchange exchange) throws IOException {
+        boolean complete = false;
+        try {
+            exchange.getResponseHeaders().set("Content-Type", contentType(ContactFormat.JSON));
+            exchange.sendResponseHeaders(STATUS_OK, 0);
+            try (JsonWriter writer = new JsonWriter(new OutputStreamWriter(exchange.getResponseBody(),
+                    StandardCharsets.UTF_8))) {
+                writer.beginObject();
+                writer.name("threads").value(workers.getMaximumPoolSize());
+                writer.name("active").value(workers.getActiveCount());
+                writer.name("queued").value(workers.getQueue().size());
+                writer.name("queueCapacity").value(workers.getQueue().size() + workers.getQueue().remainingCapacity());
+                writer.name("completed").value(completed.sum());
+                writer.name("rejected").value(rejected.sum());
+                writer.endObject();
+            }
+            complete = true;
+        } finally {
+            if (!complete){
+                abort(exchange);
+            }
+            exchange.close();
+        }
+    }
+
+    // Schema names are confined to the schema directory
+    private Schema getSchema(Map<String, String> query) throws SAXException, IOException {
+        String name = query.getOrDefault("schema", defaultSchema);
+        Path schema = schemaDirectory.resolve(name).normalize();
+        if (!schema.startsWith(schemaDirectory) || !Files.isRegularFile(schema)){
+            throw new IllegalArgumentException("Unknown schema \"" + name + "\"");
+        }
+        return SchemaValidator.getSchema(schema);
+    }
+
+    private static ContactFormat getSourceFormat(HttpExchange exchange, Map<String, String> query){
+        if (query.containsKey("from")){
+            return ContactFormat.forName(query.get("from"));
+        }
+        String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+        if (contentType != null && contentType.contains("ndjson")){
+            return ContactFormat.NDJSON;
+        }
+        if (contentType != null && contentType.contains("json")){
+            return ContactFormat.JSON;
+        }
+        if (contentType != null && contentType.contains("xml")){
+            return ContactFormat.XML;
+        }
+        if (contentType != null && contentType.contains("octet-stream")){
+            return ContactFormat.BINARY;
+        }
+        throw new IllegalArgumentException("Give the source format as ?from=xml|json|ndjson|binary or a Content-Type");
+    }
+
+    private static String contentType(ContactFormat format){
+        switch (format){
+            case JSON:
+                return "application/json; charset=utf-8";
+            case XML:
+                return "application/xml; charset=utf-8";
+            case NDJSON:
+                return "application/x-ndjson; charset=utf-8";
+            default:
+                return "application/octet-stream";
+        }
+    }
+
+    private static InputStream requestBody(HttpExchange exchange) throws IOException {
+        InputStream body = exchange.getRequestBody();
+        return "gzip".equalsIgnoreCase(exchange.getRequestHeaders().getFirst("Content-Encoding"))
+                ? new GZIPInputStream(body, BUFFER_SIZE) : body;
+    }
+
+    // The buffer holds back the status line until 64 KB are written, leaving room to report errors
+    private static OutputStream responseBody(HttpExchange exchange, Response response) throws IOException {
+        String accepted = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        if (accepted != null && accepted.contains("gzip")){
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+            return new GZIPOutputStream(new BufferedOutputStream(response, BUFFER_SIZE), BUFFER_SIZE);
+        }
+        return new BufferedOutputStream(response, BUFFER_SIZE);
+    }
+
+    private static String require(Map<String, String> query, String name){
+        String value = query.get(name);
+        if (value == null){
+            throw new IllegalArgumentException("Missing required parameter " + name);
+        }
+        return value;
+    }
+
+    // Parameters without a value, e.g. "compact", map to an empty string
+    private static Map<String, String> parseQuery(HttpExchange exchange) throws UnsupportedEncodingException {
+        Map<String, String> query = new HashMap<>();
+        String raw = exchange.getRequestURI().getRawQuery();
+        if (raw == null || raw.isEmpty()){
+            return query;
+        }
+        for (String parameter : raw.split("&")){
+            int equals = parameter.indexOf('=');
+            String name = equals < 0 ? parameter : parameter.substring(0, equals);
+            String value = equals < 0 ? "" : parameter.substring(equals + 1);
+            query.put(URLDecoder.decode(name, "UTF-8"), URLDecoder.decode(value, "UTF-8"));
+        }
+        return query;
+    }
+
+    private static void sendText(HttpExchange exchange, int status, String message) throws IOException {
+        byte[] body = (message == null ? "" : message).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().remove("Content-Encoding");
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private interface Handler {
+        void handle(HttpExchange exchange, Map<String, String> query, Response response)
+                throws IOException, SAXException;
+    }
+
+    // Response body that sends the status line on the first write, and reports whether it has.
+    // Once discarded, whatever is still written to it is dropped.
+    private static class Response extends OutputStream {
+        private final HttpExchange exchange;
+        private int status = STATUS_OK;
+        private boolean started;
+        private boolean discarded;
+        private OutputStream body;
+
+        private Response(HttpExchange exchange){
+            this.exchange = exchange;
+        }
+
+        private OutputStream start() throws IOException {
+            if (!started){
+                // Chunked, as the length is unknown
+                exchange.sendResponseHeaders(status, 0);
+                body = exchange.getResponseBody();
+                started = true;
+            }
+            return body;
+        }
+
+        private void discard(){
+            discarded = true;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (!discarded){
+                start().write(b);
+            }
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) throws IOException {
+            if (!discarded){
+                start().write(buffer, offset, length);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (started && !discarded){
+                body.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!discarded){
+                start().close();
+            }
+        }
+    }
+}
@@ -0,0 +1,407 @@
+package com.emilyfooe;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Finds contacts that share a CustomerID and resolves them by a {@link DuplicatePolicy},
+ * as a stage between reading and writing an address book.
+ * The input is read up to three times, each time streaming:
+ * <ol>
+ *     <li>a 64-bit hash of every CustomerID is counted in a {@link LongCountTable}. When the
+ *     table outgrows the memory budget, it is spilled to disk as a sorted run and emptied;
+ *     the runs are then merged to find the hashes seen more than once</li>
+ *     <li>only if any hash repeats, the contacts with those hashes are grouped by their actual
+ *     CustomerID, resolving each group and noting the fields its occurrences disagree on</li>
+ *     <li>the conversion itself reads through {@link #filter}, which puts each group's resolved
+ *     contact in place of its first occurrence and drops the others</li>
+ * </ol>
+ * Only the counting in the first pass is bounded by the memory budget. The hashes seen more than
+ * once are then kept in a table of their own, 12 bytes a slot, and the second pass holds every
+ * occurrence of each duplicated CustomerID until the conversion; both grow with the duplicates
+ * rather than the address book, and neither is spilled.
+ * Contacts without a CustomerID are never duplicates.
+ * @author Emily Fooe
+ *
+ */
+public class Deduplicator {
+    /** Memory budget of the hash table, unless configured */
+    public static final long DEFAULT_MEMORY = 64L * 1024 * 1024;
+    public static final String REPORT_EXTENSION = ".duplicates.tsv";
+    private static final String REPORT_HEADER = "#duplicates";
+    private static final String SEPARATOR = "\t";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // A long key and an int count
+    private static final int RUN_RECORD_SIZE = 12;
+
+    private final DuplicatePolicy policy;
+    // Keyed by CustomerID, in order of first occurrence
+    private final Map<String, Group> groups;
+    private final int spilledRuns;
+
+    private Deduplicator(DuplicatePolicy policy, Map<String, Group> groups, int spilledRuns){
+        this.policy = policy;
+        this.groups = groups;
+        this.spilledRuns = spilledRuns;
+    }
+
+    /**
+     * Finds the duplicates in an address book
+     * @param input address book to read; its format is taken from the extension
+     * @param policy how duplicates are to be resolved
+     * @param memoryBudget bytes the table counting CustomerIDs may take before spilling to disk
+     * @param spillDirectory directory for spilled runs, which are deleted before returning
+     */
+    public static Deduplicator scan(Path input, DuplicatePolicy policy, long memoryBudget, Path spillDirectory)
+            throws IOException {
+        List<Path> runs = new ArrayList<>();
+        try {
+            LongCountTable repeated = findRepeatedHashes(input, memoryBudget, spillDirectory, runs);
+            Map<String, Group> groups = repeated.size() > 0
+                    ? collect(input, repeated, policy) : new LinkedHashMap<>();
+            return new Deduplicator(policy, groups, runs.size());
+        } finally {
+            for (Path run : runs){
+                Files.deleteIfExists(run);
+            }
+        }
+    }
+
+    private static LongCountTable findRepeatedHashes(Path input, long memoryBudget, Path spillDirectory,
+                                                     List<Path> runs) throws IOException {
+        LongCountTable table = new LongCountTable(LongCountTable.capacityFor(memoryBudget));
+        try (ContactReader reader = open(input)) {
+            Contact contact;
+            while ((contact = reader.read()) != null){
+                String customerId = contact.getCustomerId();
+                if (customerId == null || customerId.isEmpty()){
+                    continue;
+                }
+                long key = hash(customerId);
+                if (!table.add(key, 1)){
+                    runs.add(spill(table, spillDirectory));
+                    table.clear();
+                    table.add(key, 1);
+                }
+            }
+        }
+        if (runs.isEmpty()){
+            LongCountTable repeated = new LongCountTable(1 << 30);
+            for (long key : table.sortedKeys()){
+                int count = table.get(key);
+                if (count > 1){
+                    addRepeated(repeated, key, count);
+                }
+            }
+            return repeated;
+        }
+        runs.add(spill(table, spillDirectory));
+        table.clear();
+        return mergeRuns(runs);
+    }
+
+    // Writes the table's keys and counts in key order
+    private static Path spill(LongCountTable table, Path directory) throws IOException {
+        Path run = Files.createTempFile(directory, "dedup-", ".run");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(run), BUFFER_SIZE))) {
+            for (long key : table.sortedKeys()){
+                out.writeLong(key);
+                out.writeInt(table.get(key));
+            }
+        }
+        return run;
+    }
+
+    // Sums the counts of each key across sorted runs, keeping the keys counted more than once
+    private static LongCountTable mergeRuns(List<Path> runs) throws IOException {
+        LongCountTable repeated = new LongCountTable(1 << 30);
+        PriorityQueue<Run> queue = new PriorityQueue<>(Comparator.comparingLong((Run run) -> run.key));
+        List<Run> open = new ArrayList<>();
+        try {
+            for (Path path : runs){
+                Run run = new Run(path);
+                open.add(run);
+                if (run.next()){
+                    queue.add(run);
+                }
+            }
+            while (!queue.isEmpty()){
+                long key = queue.peek().key;
+                int total = 0;
+                while (!queue.isEmpty() && queue.peek().key == key){
+                    Run run = queue.poll();
+                    total += run.count;
+                    if (run.next()){
+                        queue.add(run);
+                    }
+                }
+                if (total > 1){
+                    addRepeated(repeated, key, total);
+                }
+            }
+        } finally {
+            for (Run run : open){
+                run.close();
+            }
+        }
+        return repeated;
+    }
+
+    // The repeated hashes are not spilled, so a full table means the duplicates cannot be resolved
+    private static void addRepeated(LongCountTable repeated, long key, int count) throws IOException {
+        if (!repeated.add(key, count)){
+            throw new IOException("More than " + repeated.size() + " duplicated CustomerIDs to resolve in memory");
+        }
+    }
+
+    // Groups the contacts whose hash repeats by CustomerID; distinct IDs that merely share a hash are dropped
+    private static Map<String, Group> collect(Path input, LongCountTable repeated, DuplicatePolicy policy)
+            throws IOException {
+        Map<String, Group> groups = new LinkedHashMap<>();
+        try (ContactReader reader = open(input)) {
+            long position = 0;
+            Contact contact;
+            while ((contact = reader.read()) != null){
+                position++;
+                String customerId = contact.getCustomerId();
+                if (customerId == null || customerId.isEmpty() || repeated.get(hash(customerId)) == 0){
+                    continue;
+                }
+                groups.computeIfAbsent(customerId, Group::new).add(position, contact, policy);
+            }
+        }
+        groups.values().removeIf(group -> group.positions.size() < 2);
+        return groups;
+    }
+
+    private static ContactReader open(Path input) throws IOException {
+        InputStream stream = Compression.decompress(MappedInputStream.open(input), input);
+        return ContactFormat.forFile(input).newReader(stream);
+    }
+
+    // 64-bit FNV-1a; collisions are told apart by the second pass. Also assigns hashed shards.
+    static long hash(String customerId){
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < customerId.length(); i++){
+            hash ^= customerId.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Wraps a reader over the same address book that was scanned, resolving its duplicates
+     * @param reader reader over the scanned input, closed along with the returned reader
+     * @throws IOException if the policy is {@link DuplicatePolicy#REJECT} and there are duplicates
+     */
+    public ContactReader filter(ContactReader reader) throws IOException {
+        if (policy == DuplicatePolicy.REJECT && !groups.isEmpty()){
+            reader.close();
+            Group first = groups.values().iterator().next();
+            throw new IOException(String.format("Duplicate CustomerID \"%s\" at contacts %s (%d duplicated in all)",
+                    first.customerId, first.getPositionList(), groups.size()));
+        }
+        if (groups.isEmpty()){
+            return reader;
+        }
+        return new ContactReader() {
+            private long position;
+
+            @Override
+            public Contact read() throws IOException {
+                Contact contact;
+                while ((contact = reader.read()) != null){
+                    position++;
+                    Group group = groups.get(contact.getCustomerId());
+                    if (group == null){
+                        return contact;
+                    }
+                    if (group.positions.get(0) == position){
+                        return group.resolved;
+                    }
+                }
+                return null;
+            }
+
+            @Override
+            public void close() throws IOException {
+                reader.close();
+            }
+        };
+    }
+
+    /**
+     * Writes a line per duplicated CustomerID: the ID, how many times it occurs, the
+     * positions of its occurrences (counting contacts from 1) and the fields they disagree on
+     */
+    public void writeReport(Path file) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writer.write(String.join(SEPARATOR, REPORT_HEADER, policy.getName(),
+                    Integer.toString(groups.size()), Long.toString(getRemoved())));
+            writer.newLine();
+            for (Group group : groups.values()){
+                String conflicts = group.conflicts.stream().map(ContactField::getJsonName)
+                        .collect(Collectors.joining(","));
+                writer.write(String.join(SEPARATOR, group.customerId.replaceAll("[\t\r\n]", " "),
+                        Integer.toString(group.positions.size()), group.getPositionList(), conflicts));
+                writer.newLine();
+            }
+        }
+    }
+
+    /**
+     * Gets the report kept alongside an output, e.g. ab.json.duplicates.tsv
+     */
+    public static Path reportFile(Path output){
+        return output.resolveSibling(output.getFileName() + REPORT_EXTENSION);
+    }
+
+    public DuplicatePolicy getPolicy() {
+        return policy;
+    }
+
+    public Collection<Group> getGroups() {
+        return groups.values();
+    }
+
+    /**
+     * Gets the number of contacts dropped in favor of another with the same CustomerID
+     */
+    public long getRemoved(){
+        long removed = 0;
+        for (Group group : groups.values()){
+            removed += group.positions.size() - 1;
+        }
+        return removed;
+    }
+
+    /**
+     * Gets the number of sorted runs the hash table was spilled to, zero if it fit in memory
+     */
+    public int getSpilledRuns() {
+        return spilledRuns;
+    }
+
+    @Override
+    public String toString(){
+        return String.format("%d duplicated CustomerID(s), %d contact(s) removed", groups.size(), getRemoved());
+    }
+
+    /**
+     * The occurrences of one duplicated CustomerID
+     */
+    public static class Group {
+        private final String customerId;
+        private final List<Long> positions = new ArrayList<>();
+        private final Set<ContactField> conflicts = EnumSet.noneOf(ContactField.class);
+        private Contact resolved;
+
+        private Group(String customerId){
+            this.customerId = customerId;
+        }
+
+        private void add(long position, Contact contact, DuplicatePolicy policy){
+            positions.add(position);
+            if (resolved == null){
+                resolved = contact;
+                return;
+            }
+            String[] merged = new String[ContactField.COUNT];
+            for (ContactField field : ContactField.FIELDS){
+                String kept = field.get(resolved);
+                String value = field.get(contact);
+                if (!isEmpty(kept) && !isEmpty(value) && !Objects.equals(kept, value)){
+                    conflicts.add(field);
+                }
+                merged[field.ordinal()] = isEmpty(value) ? kept : value;
+            }
+            if (policy == DuplicatePolicy.KEEP_LAST){
+                resolved = contact;
+            } else if (policy == DuplicatePolicy.MERGE){
+                resolved = ContactField.toContact(merged);
+            }
+        }
+
+        private static boolean isEmpty(String value){
+            return value == null || value.isEmpty();
+        }
+
+        private String getPositionList(){
+            return positions.stream().map(String::valueOf).collect(Collectors.joining(","));
+        }
+
+        public String getCustomerId() {
+            return customerId;
+        }
+
+        /**
+         * Gets the positions of the occurrences in the address book, counting contacts from 1
+         */
+        public List<Long> getPositions() {
+            return positions;
+        }
+
+        /**
+         * Gets the fields that have different non-empty values in different occurrences
+         */
+        public Set<ContactField> getConflicts() {
+            return conflicts;
+        }
+
+        /**
+         * Gets the contact that replaces the occurrences, as resolved by the policy
+         */
+        public Contact getResolved() {
+            return resolved;
+        }
+    }
+
+    // Cursor over a spilled run
+    private static class Run implements Closeable {
+        private final DataInputStream in;
+        private long remaining;
+        private long key;
+        private int count;
+
+        private Run(Path path) throws IOException {
+            remaining = Files.size(path) / RUN_RECORD_SIZE;
+            in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), BUFFER_SIZE));
+        }
+
+        private boolean next() throws IOException {
+            if (remaining == 0){
+                return false;
+            }
+            remaining--;
+            key = in.readLong();
+            count = in.readInt();
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package com.emilyfooe;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Brings an address book up to date with a new version of its source, contact by contact,
+ * matching contacts by CustomerID, e.g.
+ * {@code delta --to json --in contacts.xml --out contacts.json}.
+ * Unchanged contacts are copied verbatim from the previous output instead of being
+ * serialized again, and a {@link ContactIndex} kept alongside the output means the
+ * previous version is compared without being parsed. With {@code --patch <file>},
+ * only the added, changed and removed contacts are written, as a JSON patch, and the
+ * output is left as it is. A {@link ContactLookup} of the output, if there is one, is kept up to date.
+ * @author Emily Fooe
+ *
+ */
+public class DeltaConverter {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Runs the delta command
+     * @param options parsed command-line options
+     * @return process exit code
+     */
+    public static int run(CommandOptions options) throws IOException {
+        ContactFormat target = ContactFormat.forName(options.require("to"));
+        Path input = Paths.get(options.require("in"));
+        Path output = Paths.get(options.require("out"));
+        boolean pretty = !options.has("compact");
+        if (ContactFormat.forFile(input) == null){
+            throw new IllegalArgumentException("Unknown format of \"" + input + "\"");
+        }
+        if (Compression.isCompressed(output)){
+            throw new IllegalArgumentException("Option --out cannot be gzipped, as contacts are copied out of it");
+        }
+        if (!target.isText()){
+            throw new IllegalArgumentException(target + " address books cannot be updated contact by contact");
+        }
+
+        Delta delta;
+        if (options.has("patch")){
+            Path patch = Paths.get(options.get("patch", null));
+            delta = writePatch(input, output, patch, pretty);
+            System.out.printf("Wrote %s: %s\n", patch, delta);
+        } else {
+            delta = update(input, output, target, pretty);
+            System.out.printf("Updated %s: %s\n", output, delta);
+        }
+        return BatchConverter.EXIT_OK;
+    }
+
+    /**
+     * Rewrites an address book from a new version of its source, copying unchanged contacts
+     * out of the previous output. Without a usable index, every contact counts as added.
+     * @param input new version of the source address book
+     * @param output address book to bring up to date, replaced atomically
+     * @param target format of the output
+     * @param pretty whether to indent the output
+     * @return what changed
+     */
+    public static Delta update(Path input, Path output, ContactFormat target, boolean pretty) throws IOException {
+        ContactIndex previous = ContactIndex.load(output);
+        if (previous != null && (previous.getFormat() != target || previous.isPretty() != pretty)){
+            // Copied contacts would not match the new layout
+            previous = null;
+        }
+        ContactIndex index = new ContactIndex(target, pretty);
+        ContactLookup.Builder lookup = Files.exists(ContactLookup.lookupFile(output))
+                ? new ContactLookup.Builder(target, pretty) : null;
+        Delta delta = new Delta();
+        Path temp = ResumableConverter.createTempSibling(output);
+        try {
+            try (FileChannel old = previous != null ? FileChannel.open(output, StandardOpenOption.READ) : null;
+                 ContactReader reader = open(input);
+                 IndexingContactWriter writer = new IndexingContactWriter(Files.newOutputStream(temp), target,
+                         pretty, lookup)) {
+                Set<String> seen = new HashSet<>();
+                Contact contact;
+                while ((contact = reader.read()) != null){
+                    String customerId = checkCustomerId(contact, seen);
+                    String hash = ContactIndex.hash(contact);
+                    ContactIndex.Entry entry = previous != null ? previous.get(customerId) : null;
+                    byte[] serialized;
+                    if (entry != null && entry.getHash().equals(hash)){
+                        serialized = read(old, entry);
+                        delta.unchanged++;
+                    } else {
+                        serialized = target.serialize(contact, pretty);
+                        if (entry != null){
+                            delta.changed++;
+                        } else {
+                            delta.added++;
+                        }
+                    }
+                    writer.write(contact, serialized);
+                    index.add(customerId, hash, writer.getLastOffset(), serialized.length);
+                }
+                delta.removed = countRemoved(previous, seen);
+            }
+            // Renaming keeps the modification time the index records
+            index.save(output, temp);
+            Files.move(temp, output, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        if (lookup != null){
+            lookup.save(output);
+        }
+        return delta;
+    }
+
+    /**
+     * Writes the differences between an address book and a new version of its source as a
+     * JSON array of operations: {"op":"add"|"change","contact":{...}} in source order, then
+     * {"op":"remove","customerId":"..."} for each contact no longer present.
+     * The address book and its index are left unchanged.
+     * @param input new version of the source address book
+     * @param output indexed address book to compare with
+     * @param patch file to write the patch to
+     * @param pretty whether to indent the patch
+     * @return what changed
+     */
+    public static Delta writePatch(Path input, Path output, Path patch, boolean pretty) throws IOException {
+        ContactIndex previous = ContactIndex.load(output);
+        Delta delta = new Delta();
+        try (ContactReader reader = open(input);
+             JsonWriter writer = new JsonWriter(newWriter(patch))) {
+            if (pretty){
+                writer.setIndent("  ");
+            }
+            writer.setHtmlSafe(true);
+            writer.beginArray();
+            Set<String> seen = new HashSet<>();
+            Contact contact;
+            while ((contact = reader.read()) != null){
+                String customerId = checkCustomerId(contact, seen);
+                ContactIndex.Entry entry = previous != null ? previous.get(customerId) : null;
+                if (entry != null && entry.getHash().equals(ContactIndex.hash(contact))){
+                    delta.unchanged++;
+                    continue;
+                }
+                if (entry != null){
+                    delta.changed++;
+                } else {
+                    delta.added++;
+                }
+                writer.beginObject();
+                writer.name("op").value(entry != null ? "change" : "add");
+                writer.name("contact");
+                ContactTypeAdapter.INSTANCE.write(writer, contact);
+                writer.endObject();
+            }
+            if (previous != null){
+                for (ContactIndex.Entry entry : previous.getEntries()){
+                    if (!seen.contains(entry.getCustomerId())){
+                        writer.beginObject();
+                        writer.name("op").value("remove");
+                        writer.name("customerId").value(entry.getCustomerId());
+                        writer.endObject();
+                        delta.removed++;
+                    }
+                }
+            }
+            writer.endArray();
+        }
+        return delta;
+    }
+
+    private static Writer newWriter(Path file) throws IOException {
+        return new OutputStreamWriter(new BufferedOutputStream(Files.newOutputStream(file), BUFFER_SIZE),
+                StandardCharsets.UTF_8);
+    }
+
+    private static ContactReader open(Path input) throws IOException {
+        InputStream stream = Compression.decompress(MappedInputStream.open(input), input);
+        return ContactFormat.forFile(input).newReader(stream);
+    }
+
+    // Contacts are matched by CustomerID, so it must be present, unique and fit in the index
+    private static String checkCustomerId(Contact contact, Set<String> seen) throws IOException {
+        String customerId = contact.getCustomerId();
+        if (customerId == null || customerId.isEmpty()){
+            throw new IOException("Contact without a CustomerID");
+        }
+        if (customerId.indexOf('\t') >= 0 || customerId.indexOf('\n') >= 0 || customerId.indexOf('\r') >= 0){
+            throw new IOException("CustomerID \"" + customerId + "\" contains a tab or line break");
+        }
+        if (!seen.add(customerId)){
+            throw new IOException("Duplicate CustomerID \"" + customerId + "\"");
+        }
+        return customerId;
+    }
+
+    private static long countRemoved(ContactIndex previous, Set<String> seen){
+        if (previous == null){
+            return 0;
+        }
+        long removed = 0;
+        for (ContactIndex.Entry entry : previous.getEntries()){
+            if (!seen.contains(entry.getCustomerId())){
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    // Copies a contact's bytes out of the previous output
+    private static byte[] read(FileChannel channel, ContactIndex.Entry entry) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(entry.getLength());
+        long position = entry.getOffset();
+        while (buffer.hasRemaining()){
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0){
+                throw new IOException("Index does not match the previous output");
+            }
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Counts of contacts by how they changed
+     */
+    public static class Delta {
+        private long added;
+        private long changed;
+        private long removed;
+        private long unchanged;
+
+        public long getAdded() {
+            return added;
+        }
+
+        public long getChanged() {
+            return changed;
+        }
+
+        public long getRemoved() {
+            return removed;
+        }
+
+        public long getUnchanged() {
+            return unchanged;
+        }
+
+        @Override
+        public String toString(){
+            return String.format("%d added, %d changed, %d removed, %d unchanged", added, changed, removed, unchanged);
+        }
+    }
+}
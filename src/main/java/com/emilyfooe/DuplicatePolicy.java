@@ -0,0 +1,39 @@
+package com.emilyfooe;
+
+/**
+ * What to do with contacts that share a CustomerID, see {@link Deduplicator}.
+ * The surviving contact takes the place of the first occurrence.
+ * @author Emily Fooe
+ *
+ */
+public enum DuplicatePolicy {
+    /** Fail the conversion */
+    REJECT,
+    /** Keep the first occurrence and drop the rest */
+    KEEP_FIRST,
+    /** Keep the last occurrence and drop the rest */
+    KEEP_LAST,
+    /** Combine the occurrences field by field; later non-empty values win */
+    MERGE;
+
+    /**
+     * Looks up a policy by name, e.g. "keep-first"
+     * @throws IllegalArgumentException if the name is unknown
+     */
+    public static DuplicatePolicy forName(String name){
+        for (DuplicatePolicy policy : values()){
+            if (policy.getName().equalsIgnoreCase(name)){
+                return policy;
+            }
+        }
+        throw new IllegalArgumentException("Unknown duplicate policy \"" + name
+                + "\", expected reject, keep-first, keep-last or merge");
+    }
+
+    /**
+     * Gets the name used on the command line, e.g. "keep-first"
+     */
+    public String getName(){
+        return name().toLowerCase().replace('_', '-');
+    }
+}
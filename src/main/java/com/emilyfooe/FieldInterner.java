@@ -0,0 +1,194 @@
+package com.emilyfooe;
+
+import java.io.PrintStream;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Replaces repeated values of low-cardinality fields with one shared String per distinct value,
+ * so contacts held in memory share e.g. a handful of country names instead of a copy each.
+ * Parsers still create a String per value; the duplicate is dropped right away, which is
+ * cheap for a young-generation collection, instead of living as long as the contact.
+ * Each field's dictionary stops growing at {@link #MAX_VALUES} entries, so a field that
+ * turns out to have many distinct values costs a bounded amount of memory.
+ * Safe to share between threads.
+ * @author Emily Fooe
+ *
+ */
+public class FieldInterner {
+    /** Fields that repeat heavily in typical address books */
+    public static final Set<ContactField> LOW_CARDINALITY = Collections.unmodifiableSet(EnumSet.of(
+            ContactField.CONTACT_TITLE, ContactField.CITY, ContactField.REGION, ContactField.COUNTRY));
+    /** Interns nothing */
+    public static final FieldInterner NONE = new FieldInterner(EnumSet.noneOf(ContactField.class));
+    static final int MAX_VALUES = 10_000;
+
+    // Indexed by field ordinal; null for fields that are not interned
+    private final Dictionary[] dictionaries = new Dictionary[ContactField.COUNT];
+    private final boolean enabled;
+
+    /**
+     * @param fields fields to intern
+     */
+    public FieldInterner(Set<ContactField> fields){
+        for (ContactField field : fields){
+            dictionaries[field.ordinal()] = new Dictionary();
+        }
+        enabled = !fields.isEmpty();
+    }
+
+    /**
+     * Parses a comma-separated list of fields by JSON name, e.g. "country,city",
+     * or "none", or "default" for {@link #LOW_CARDINALITY}
+     * @throws IllegalArgumentException if a field is unknown
+     */
+    public static FieldInterner forNames(String names){
+        if (names.equalsIgnoreCase("none")){
+            return NONE;
+        }
+        if (names.equalsIgnoreCase("default")){
+            return new FieldInterner(LOW_CARDINALITY);
+        }
+        Set<ContactField> fields = EnumSet.noneOf(ContactField.class);
+        for (String name : names.split(",")){
+            ContactField field = ContactField.forJsonName(name.trim());
+            if (field == null){
+                throw new IllegalArgumentException("Unknown contact field \"" + name.trim() + "\"");
+            }
+            fields.add(field);
+        }
+        return new FieldInterner(fields);
+    }
+
+    /**
+     * Gets the shared instance of a field value
+     * @return an equal String, possibly the same one
+     */
+    public String intern(ContactField field, String value){
+        Dictionary dictionary = dictionaries[field.ordinal()];
+        return dictionary == null || value == null ? value : dictionary.intern(value);
+    }
+
+    /**
+     * Interns every configured field of a contact's values in place
+     * @param values values indexed by field ordinal, as passed to {@link ContactField#toContact}
+     */
+    public void internAll(String[] values){
+        if (!enabled){
+            return;
+        }
+        for (int i = 0; i < dictionaries.length; i++){
+            if (dictionaries[i] != null && values[i] != null){
+                values[i] = dictionaries[i].intern(values[i]);
+            }
+        }
+    }
+
+    /**
+     * Gets the statistics of every interned field
+     */
+    public Map<ContactField, Stats> getStats(){
+        Map<ContactField, Stats> stats = new EnumMap<>(ContactField.class);
+        for (ContactField field : ContactField.FIELDS){
+            Dictionary dictionary = dictionaries[field.ordinal()];
+            if (dictionary != null){
+                stats.put(field, new Stats(dictionary.lookups.sum(), dictionary.hits.sum(),
+                        dictionary.bytesSaved.sum(), dictionary.values.size()));
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Prints a line of statistics per interned field
+     */
+    public void printStats(PrintStream out){
+        for (Map.Entry<ContactField, Stats> entry : getStats().entrySet()){
+            out.printf("  %-12s %s\n", entry.getKey().getJsonName(), entry.getValue());
+        }
+    }
+
+    /**
+     * Estimates the heap taken by a String of the given length on a 64-bit JVM with
+     * compressed pointers: a 24-byte object and a char[] of 16 bytes plus two per char
+     */
+    static long stringSize(int length){
+        return 24 + ((16 + 2L * length + 7) & ~7L);
+    }
+
+    private static class Dictionary {
+        private final Map<String, String> values = new ConcurrentHashMap<>();
+        private final LongAdder lookups = new LongAdder();
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder bytesSaved = new LongAdder();
+
+        private String intern(String value){
+            lookups.increment();
+            String shared = values.get(value);
+            if (shared == null){
+                // Full dictionaries still serve the values they hold
+                if (values.size() >= MAX_VALUES){
+                    return value;
+                }
+                shared = values.putIfAbsent(value, value);
+                if (shared == null){
+                    return value;
+                }
+            }
+            hits.increment();
+            bytesSaved.add(stringSize(value.length()));
+            return shared;
+        }
+    }
+
+    /**
+     * Counters of one field's dictionary
+     */
+    public static class Stats {
+        private final long lookups;
+        private final long hits;
+        private final long bytesSaved;
+        private final int distinct;
+
+        private Stats(long lookups, long hits, long bytesSaved, int distinct){
+            this.lookups = lookups;
+            this.hits = hits;
+            this.bytesSaved = bytesSaved;
+            this.distinct = distinct;
+        }
+
+        public long getLookups() {
+            return lookups;
+        }
+
+        public long getHits() {
+            return hits;
+        }
+
+        public double getHitRate() {
+            return lookups == 0 ? 0 : (double) hits / lookups;
+        }
+
+        /**
+         * Estimated heap no longer retained by duplicate Strings, see {@link #stringSize}
+         */
+        public long getBytesSaved() {
+            return bytesSaved;
+        }
+
+        public int getDistinct() {
+            return distinct;
+        }
+
+        @Override
+        public String toString(){
+            return String.format("%5.1f%% hits, %,d distinct, ~%,d bytes saved", 100 * getHitRate(), distinct,
+                    bytesSaved);
+        }
+    }
+}
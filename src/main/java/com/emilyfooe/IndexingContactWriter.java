@@ -0,0 +1,108 @@
+package com.emilyfooe;
+
+import java.io.BufferedOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes an uncompressed address book while recording where each contact lies in it.
+ * Every contact is serialized on its own and written through a barrier that keeps the
+ * per-contact flushes from reaching the file, so the byte count after each is exact.
+ * Positions go to a {@link ContactLookup.Builder} if one is given, and are available
+ * after every write through {@link #getLastOffset()}.
+ * @author Emily Fooe
+ *
+ */
+public class IndexingContactWriter implements ContactWriter {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final ContactFormat format;
+    private final boolean pretty;
+    private final CountingOutputStream counter;
+    private final ContactWriter writer;
+    private final ContactLookup.Builder lookup;
+    private long lastOffset = -1;
+
+    /**
+     * @param output file stream to write to, closed along with the writer
+     * @param format format to write, which must be {@linkplain ContactFormat#isText() text}
+     * @param pretty whether to indent the output
+     * @param lookup builder to record every contact in, or null
+     */
+    public IndexingContactWriter(OutputStream output, ContactFormat format, boolean pretty,
+                                 ContactLookup.Builder lookup) throws IOException {
+        if (!format.isText()){
+            throw new IllegalArgumentException(format + " address books cannot be indexed");
+        }
+        this.format = format;
+        this.pretty = pretty;
+        this.lookup = lookup;
+        counter = new CountingOutputStream(new BufferedOutputStream(output, BUFFER_SIZE));
+        writer = format.newWriter(new FlushBarrier(counter), pretty);
+    }
+
+    @Override
+    public void write(Contact contact) throws IOException {
+        write(contact, format.serialize(contact, pretty));
+    }
+
+    /**
+     * Appends a contact in a serialized form that has already been produced, e.g. copied out of
+     * an earlier output
+     * @param contact the contact, for the lookup; may be null if there is none
+     * @param serialized the contact as laid out by {@link ContactFormat#serialize} for this writer
+     */
+    public void write(Contact contact, byte[] serialized) throws IOException {
+        writer.writeSerialized(serialized);
+        // Flushing stops at the barrier, so this only settles the count
+        writer.flush();
+        lastOffset = counter.getCount() - serialized.length;
+        if (lookup != null){
+            lookup.add(contact, lastOffset, serialized.length);
+        }
+    }
+
+    /**
+     * Appends a serialized contact, reading it back for its fields if a lookup is being built;
+     * callers that still have the contact save that with {@link #write(Contact, byte[])}
+     */
+    @Override
+    public void writeSerialized(byte[] contact) throws IOException {
+        write(lookup != null ? format.deserialize(contact) : null, contact);
+    }
+
+    /**
+     * Gets the position in the file of the contact written last, or -1 before the first
+     */
+    public long getLastOffset() {
+        return lastOffset;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        writer.flush();
+        counter.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+
+    // Keeps per-contact flushes from reaching the file, while still closing it
+    private static class FlushBarrier extends FilterOutputStream {
+        private FlushBarrier(OutputStream out){
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) throws IOException {
+            out.write(buffer, offset, length);
+        }
+
+        @Override
+        public void flush() {
+        }
+    }
+}
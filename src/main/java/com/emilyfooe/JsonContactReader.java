@@ -0,0 +1,80 @@
+package com.emilyfooe;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Pulls contacts out of a JSON array one element at a time with Gson's JsonReader.
+ * Only the current object is materialized, so memory use does not depend
+ * on the size of the address book.
+ * @author Emily Fooe
+ *
+ */
+public class JsonContactReader implements ContactReader {
+    private final JsonReader reader;
+    private final ContactTypeAdapter adapter;
+    private boolean started;
+    private boolean finished;
+
+    public JsonContactReader(Reader input) {
+        this(input, FieldInterner.NONE);
+    }
+
+    /**
+     * @param input stream to read from
+     * @param interner shares repeated field values between the contacts read
+     */
+    public JsonContactReader(Reader input, FieldInterner interner) {
+        reader = new JsonReader(input);
+        adapter = interner == FieldInterner.NONE ? ContactTypeAdapter.INSTANCE : new ContactTypeAdapter(interner);
+    }
+
+    @Override
+    public Contact read() throws IOException {
+        if (finished){
+            return null;
+        }
+        try {
+            if (!started){
+                reader.beginArray();
+                started = true;
+            }
+            if (!reader.hasNext()){
+                reader.endArray();
+                // As Gson.fromJson, nothing may follow the array
+                checkEndOfDocument();
+                finished = true;
+                return null;
+            }
+            // A null would read as the end of the book, silently dropping the contacts after it
+            if (reader.peek() == JsonToken.NULL){
+                throw new IOException("Malformed address book: null in place of a contact at " + reader.getPath());
+            }
+            return adapter.read(reader);
+        } catch (IllegalStateException e) {
+            // JsonReader reports unexpected tokens as IllegalStateException
+            throw new IOException("Malformed address book: " + e.getMessage(), e);
+        }
+    }
+
+    private void checkEndOfDocument() throws IOException {
+        JsonToken next;
+        try {
+            next = reader.peek();
+        } catch (MalformedJsonException e) {
+            throw new IOException("Malformed address book: content after the contact array", e);
+        }
+        if (next != JsonToken.END_DOCUMENT){
+            throw new IOException("Malformed address book: content after the contact array");
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
@@ -0,0 +1,135 @@
+package com.emilyfooe;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes contacts as a JSON array, one object at a time, either pretty-printed
+ * or compact. Field names and layout match the output of Gson's reflective serialization.
+ * A writer may also produce a fragment of a larger array, so that separately
+ * written parts can be concatenated into one document.
+ * @author Emily Fooe
+ *
+ */
+public class JsonContactWriter implements ContactWriter {
+    private final Writer output;
+    private final JsonWriter writer;
+    private final boolean closesDocument;
+
+    public JsonContactWriter(Writer output) throws IOException {
+        this(output, true, true, true);
+    }
+
+    /**
+     * Creates a writer for part of an array
+     * @param output stream to write to
+     * @param pretty whether to indent the output; otherwise it is written on one line
+     * @param opensDocument whether this part starts the array; if not, contacts
+     *                      are written as if following those of an earlier part
+     * @param closesDocument whether this part ends the array
+     */
+    public JsonContactWriter(Writer output, boolean pretty, boolean opensDocument,
+                             boolean closesDocument) throws IOException {
+        this.output = output;
+        this.closesDocument = closesDocument;
+        if (opensDocument){
+            writer = new JsonWriter(output);
+            configure(writer, pretty);
+            writer.beginArray();
+        } else {
+            // Replay an opened, non-empty array into the void so JsonWriter
+            // places separators and indentation as it would mid-document
+            ToggleWriter toggle = new ToggleWriter(output);
+            writer = new JsonWriter(toggle);
+            configure(writer, pretty);
+            writer.beginArray();
+            writer.nullValue();
+            toggle.enabled = true;
+        }
+    }
+
+    private static void configure(JsonWriter writer, boolean pretty){
+        if (pretty){
+            writer.setIndent("  ");
+        }
+        writer.setHtmlSafe(true);
+    }
+
+    @Override
+    public void write(Contact contact) throws IOException {
+        ContactTypeAdapter.INSTANCE.write(writer, contact);
+    }
+
+    @Override
+    public void writeSerialized(byte[] contact) throws IOException {
+        // An empty raw value makes JsonWriter emit the separator and indentation alone
+        writer.jsonValue("");
+        output.write(new String(contact, StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public void flush() throws IOException {
+        writer.flush();
+    }
+
+    /**
+     * Serializes a contact as it appears inside an array, without a leading separator
+     * @param pretty whether to indent it as a pretty-printed array element
+     */
+    public static byte[] serialize(Contact contact, boolean pretty) throws IOException {
+        StringWriter buffer = new StringWriter();
+        JsonWriter element = new JsonWriter(buffer);
+        configure(element, pretty);
+        element.beginArray();
+        ContactTypeAdapter.INSTANCE.write(element, contact);
+        String text = buffer.toString();
+        return text.substring(text.indexOf('{')).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closesDocument){
+            writer.endArray();
+            writer.close();
+        } else {
+            // JsonWriter.close rejects an unfinished array
+            writer.flush();
+            output.close();
+        }
+    }
+
+    // Drops everything written until enabled
+    private static class ToggleWriter extends FilterWriter {
+        private boolean enabled;
+
+        private ToggleWriter(Writer out){
+            super(out);
+        }
+
+        @Override
+        public void write(int c) throws IOException {
+            if (enabled){
+                out.write(c);
+            }
+        }
+
+        @Override
+        public void write(char[] buffer, int offset, int length) throws IOException {
+            if (enabled){
+                out.write(buffer, offset, length);
+            }
+        }
+
+        @Override
+        public void write(String str, int offset, int length) throws IOException {
+            if (enabled){
+                out.write(str, offset, length);
+            }
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.emilyfooe;
+
+import java.util.Arrays;
+
+/**
+ * Counts occurrences of 64-bit keys in an open-addressing table of two primitive arrays,
+ * 12 bytes per slot, with linear probing. Zero marks an empty slot, so a zero key is
+ * stored as one. Not thread-safe.
+ * @author Emily Fooe
+ *
+ */
+final class LongCountTable {
+    static final int BYTES_PER_SLOT = 12;
+    private static final int MIN_CAPACITY = 1024;
+
+    private long[] keys;
+    private int[] counts;
+    private int size;
+    private final int maxCapacity;
+
+    /**
+     * @param maxCapacity slots the table may grow to, a power of two
+     */
+    LongCountTable(int maxCapacity){
+        this.maxCapacity = maxCapacity;
+        int capacity = Math.min(MIN_CAPACITY, maxCapacity);
+        keys = new long[capacity];
+        counts = new int[capacity];
+    }
+
+    /**
+     * Gets the largest power-of-two capacity that fits in a number of bytes
+     */
+    static int capacityFor(long bytes){
+        long slots = Math.max(MIN_CAPACITY, bytes / BYTES_PER_SLOT);
+        return Integer.highestOneBit((int) Math.min(slots, 1 << 30));
+    }
+
+    /**
+     * Adds to the count of a key
+     * @return false if the key is new and the table is full at its maximum capacity,
+     * in which case nothing is added
+     */
+    boolean add(long key, int count){
+        key = key == 0 ? 1 : key;
+        int slot = find(key);
+        if (keys[slot] == key){
+            counts[slot] += count;
+            return true;
+        }
+        // Kept at most three quarters full, so probe sequences stay short
+        if (size + 1 > keys.length / 4 * 3){
+            if (keys.length >= maxCapacity){
+                return false;
+            }
+            rehash(keys.length * 2);
+            slot = find(key);
+        }
+        keys[slot] = key;
+        counts[slot] = count;
+        size++;
+        return true;
+    }
+
+    /**
+     * Gets the count of a key, or zero if it was never added
+     */
+    int get(long key){
+        key = key == 0 ? 1 : key;
+        int slot = find(key);
+        return keys[slot] == key ? counts[slot] : 0;
+    }
+
+    int size(){
+        return size;
+    }
+
+    /**
+     * Gets the keys in ascending order
+     */
+    long[] sortedKeys(){
+        long[] sorted = new long[size];
+        int i = 0;
+        for (long key : keys){
+            if (key != 0){
+                sorted[i++] = key;
+            }
+        }
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    void clear(){
+        Arrays.fill(keys, 0);
+        size = 0;
+    }
+
+    // Slot holding the key, or the empty slot it would go in
+    private int find(long key){
+        int mask = keys.length - 1;
+        int slot = (int) mix(key) & mask;
+        while (keys[slot] != 0 && keys[slot] != key){
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void rehash(int capacity){
+        long[] oldKeys = keys;
+        int[] oldCounts = counts;
+        keys = new long[capacity];
+        counts = new int[capacity];
+        for (int i = 0; i < oldKeys.length; i++){
+            if (oldKeys[i] != 0){
+                int slot = find(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                counts[slot] = oldCounts[i];
+            }
+        }
+    }
+
+    // Spreads the bits of a key over the low bits used for the slot (MurmurHash3's finalizer)
+    static long mix(long key){
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return key;
+    }
+}
@@ -1,19 +1,6 @@
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.JsonArray;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
+package com.emilyfooe;
+
 import org.xml.sax.SAXException;
-import javax.xml.XMLConstants;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.*;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
-import javax.xml.transform.stream.StreamSource;
-import javax.xml.validation.Schema;
-import javax.xml.validation.SchemaFactory;
 import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -33,8 +20,12 @@ public class Main {
     private static final Path outputDir = Paths.get(currentDir.toString(), "output");
     private static final Path inputDir = Paths.get(currentDir.toString(), "input");
     private static final File baseSchema = Paths.get(currentDir.toString(), "schemas", "contact.xsd").toFile();
+    private static final int EXIT_USAGE = 2;
 
-    public static void main(String[] args) throws IOException {
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length > 0){
+            System.exit(runCommand(args));
+        }
         Scanner scan = new Scanner(System.in);
         boolean running = true;
             while (running){
@@ -67,14 +58,13 @@ public class Main {
                             break;
                         }
 
-                        // Write to file
+                        // Stream contacts straight to file
                         try {
                             File file = filepath.toFile();
-                            Contact[] contacts = ContactHelper.xmlFileToContactArray(file);
-                            JsonArray contactArray = ContactHelper.contactArrayToJsonArray(contacts);
-                            String result = writeJson(contactArray, outputFile);
+                            Path result = getOutfile(outputFile, ".json");
+                            StreamingConverter.xmlFileToJsonFile(file, result.toFile());
                             System.out.println("Successfully saved to " + result);
-                        } catch (ParserConfigurationException | SAXException e) {
+                        } catch (IOException e) {
                             printError("Failed to convert file.");
                             e.printStackTrace();
                         }
@@ -107,15 +97,13 @@ public class Main {
                             break;
                         }
 
-                        // Write to file
+                        // Stream contacts straight to file
                         try {
                             File file = filepath.toFile();
-                            Contact[] list = ContactHelper.jsonFileToContactArray(file);
-                            String result = writeXml(outputFile, list);
-                           if (result != null){
-                               System.out.println("Successfully saved to " + result);
-                           }
-                        } catch (ParserConfigurationException e) {
+                            Path result = getOutfile(outputFile, ".xml");
+                            StreamingConverter.jsonFileToXmlFile(file, result.toFile(), true);
+                            System.out.println("Successfully saved to " + result);
+                        } catch (IOException e) {
                             printError("Failed to convert file.");
                             e.printStackTrace();
                         }
@@ -151,6 +139,36 @@ public class Main {
         scan.close();
     }
 
+    // Runs a non-interactive command and returns the process exit code
+    private static int runCommand(String[] args) throws IOException, InterruptedException {
+        try {
+            CommandOptions options = CommandOptions.parse(args);
+            switch (options.getCommand()){
+                case "convert":
+                    return BatchConverter.run(options);
+                case "validate":
+                    return SchemaValidator.run(options);
+                case "delta":
+                    return DeltaConverter.run(options);
+                case "merge":
+                    return MergeConverter.run(options);
+                case "query":
+                    return ContactQuery.run(options);
+                case "serve":
+                    return ConversionServer.run(options);
+                default:
+                    throw new IllegalArgumentException("Unknown command \"" + options.getCommand() + "\"");
+            }
+        } catch (IllegalArgumentException e) {
+            printError(e.getMessage());
+            printUsage();
+            return EXIT_USAGE;
+        } catch (SAXException e) {
+            printError("Invalid schema: " + e.getMessage());
+            return EXIT_USAGE;
+        }
+    }
+
     // Get input file from user and ensure that it is valid
     private static String getInputFile(Scanner scan, String inputFile, String fileExt){
         Path filepath = Paths.get(inputDir.toString(), inputFile);
@@ -228,68 +246,9 @@ public class Main {
         return uniquePath;
     }
 
-    /**
-     * Write JsonArray to .json file
-     * @param json JsonArray of contacts
-     * @param jsonOutputFile .json file to write to
-     */
-    private static String writeJson(JsonArray json, String jsonOutputFile) throws IOException {
-        Gson gson = new GsonBuilder().setPrettyPrinting().create();
-        Path candidate = getOutfile(jsonOutputFile, ".json");
-        Writer writer;
-        writer = new FileWriter(candidate.toFile());
-        gson.toJson(json, writer);
-        writer.flush();
-        writer.close();
-        return candidate.toString();
-    }
-
-    /**
-     * Writes .xml document containing address book
-     * @param fileName .xml file to write to
-     * @param contacts contact list
-     */
-    private static String writeXml(String fileName, Contact[] contacts) throws ParserConfigurationException {
-        // Create document w/ "AddressBook" root
-        Path filepath = getOutfile(fileName, ".xml");
-        DocumentBuilderFactory docFactory = DocumentBuilderFactory.newInstance();
-        DocumentBuilder docBuilder = docFactory.newDocumentBuilder();
-        Document doc = docBuilder.newDocument();
-        Element rootElement = doc.createElement("AddressBook");
-        doc.appendChild(rootElement);
-
-        // Add each contact node
-        for (Contact contact : contacts) {
-            ContactHelper.contactToXmlNode(doc, rootElement, contact);
-        }
-
-        // Write to file
-        try (FileOutputStream output = new FileOutputStream(filepath.toString())) {
-            writeXml(doc, output);
-            return filepath.toString();
-        } catch (IOException | TransformerException e) {
-            e.printStackTrace();
-        }
-        return null;
-    }
-
     //Quick and easy way to validate xml file against schema
     public static void validateSchema(File schemaFile, File xmlFile) throws SAXException, IOException {
-        SchemaFactory factory = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
-        Schema schema = factory.newSchema(schemaFile);
-        schema.newValidator().validate(new StreamSource(xmlFile));
-    }
-
-    // Write XML document w/ output stream
-    private static void writeXml(Document doc, OutputStream output) throws TransformerException {
-        TransformerFactory transformerFactory = TransformerFactory.newInstance();
-        Transformer transformer = transformerFactory.newTransformer();
-        // Indent to appropriate levels
-        transformer.setOutputProperty(OutputKeys.INDENT, "yes");
-        transformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "2");
-        DOMSource source = new DOMSource(doc);
-        StreamResult result = new StreamResult(output);
-        transformer.transform(source, result);
+        SchemaValidator.validate(schemaFile.toPath(), xmlFile.toPath());
     }
 
     // Prints main menu
@@ -303,6 +262,23 @@ public class Main {
         System.out.println();
     }
 
+    // Prints command-line usage
+    private static void printUsage(){
+        System.out.println("Usage: convert --to <json|ndjson|xml|binary> [--in <dir>] [--out <dir>] [--threads <n>] [--split]");
+        System.out.println("               [--progress] [--compact] [--gzip [--compress-threads <n>]] [--incremental]");
+        System.out.println("               [--validate [--schema <xsd>] [--collect-errors]]");
+        System.out.println("               [--dedup <reject|keep-first|keep-last|merge> [--dedup-memory <MB>]] [--index]");
+        System.out.println("               [--shard-contacts <n> | --shard-size <MB> | --shards <n>]");
+        System.out.println("               [--resume [--checkpoint-interval <MB>]]");
+        System.out.println("       validate [--schema <xsd>] [--in <dir>] [--threads <n>]");
+        System.out.println("       delta --to <json|ndjson|xml> --in <file> --out <file> [--compact] [--patch <file>]");
+        System.out.println("       merge [--to <json|ndjson|xml|binary>] --out <file> --in <file|dir>[,<file|dir>...] [--compact]");
+        System.out.println("             [--memory <MB>] [--temp-dir <dir>] [--index]");
+        System.out.println("       query --in <file> [--id <customerId>] [--country <country>] [--city <city>]");
+        System.out.println("       serve [--host <address>] [--port <n>] [--threads <n>] [--queue <n>] [--schema <xsd>]");
+        System.out.println("Run without arguments for the interactive menu.");
+    }
+
      // Prints an error message in red
     private static void printError(String message){
         System.out.println("\033[0;31m[ERROR] " + message + "\033[0m");
@@ -0,0 +1,116 @@
+package com.emilyfooe;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a memory-mapped file, so parsers copy straight out of the page cache
+ * instead of through read() system calls and an intermediate buffer.
+ * A single mapping is limited to 2 GB; larger files are streamed through a large buffer instead.
+ * @author Emily Fooe
+ *
+ */
+public class MappedInputStream extends InputStream {
+    /** Largest file or range that can be mapped at once */
+    static final long MAX_MAPPED_SIZE = Integer.MAX_VALUE;
+    static final int LARGE_BUFFER_SIZE = 1024 * 1024;
+
+    private ByteBuffer buffer;
+
+    /**
+     * @param buffer mapped bytes to read, from its position to its limit
+     */
+    public MappedInputStream(ByteBuffer buffer){
+        this.buffer = buffer;
+    }
+
+    /**
+     * Opens a file for reading, mapping it into memory if it fits in one mapping
+     * @param file file to read
+     * @return a mapped stream, or a stream with a large buffer for files too big to map
+     */
+    public static InputStream open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size <= MAX_MAPPED_SIZE){
+                // The mapping stays valid after the channel is closed
+                return new MappedInputStream(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+            }
+        }
+        return openStreamed(file);
+    }
+
+    /**
+     * Opens a file for reading through a large buffer, without mapping it
+     * @param file file to read
+     */
+    public static InputStream openStreamed(Path file) throws IOException {
+        return new BufferedInputStream(Files.newInputStream(file), LARGE_BUFFER_SIZE);
+    }
+
+    /**
+     * Maps a byte range of an open file
+     * @param channel channel to map from
+     * @param start offset of the first byte
+     * @param end offset after the last byte
+     * @return the mapped range, or null if it is too big to map
+     */
+    public static MappedInputStream map(FileChannel channel, long start, long end) throws IOException {
+        if (end - start > MAX_MAPPED_SIZE){
+            return null;
+        }
+        return new MappedInputStream(channel.map(FileChannel.MapMode.READ_ONLY, start, end - start));
+    }
+
+    @Override
+    public int read() throws IOException {
+        ByteBuffer bytes = buffer();
+        return bytes.hasRemaining() ? bytes.get() & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] destination, int offset, int length) throws IOException {
+        ByteBuffer bytes = buffer();
+        if (length == 0){
+            return 0;
+        }
+        if (!bytes.hasRemaining()){
+            return -1;
+        }
+        int count = Math.min(length, bytes.remaining());
+        bytes.get(destination, offset, count);
+        return count;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        ByteBuffer bytes = buffer();
+        int count = (int) Math.max(0, Math.min(n, bytes.remaining()));
+        bytes.position(bytes.position() + count);
+        return count;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return buffer().remaining();
+    }
+
+    // The mapping itself is released when the buffer is garbage collected
+    @Override
+    public void close() {
+        buffer = null;
+    }
+
+    private ByteBuffer buffer() throws IOException {
+        if (buffer == null){
+            throw new IOException("Stream closed");
+        }
+        return buffer;
+    }
+}
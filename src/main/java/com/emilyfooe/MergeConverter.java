@@ -0,0 +1,356 @@
+package com.emilyfooe;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Combines any number of XML and JSON address books into one, ordered by CustomerID, e.g.
+ * {@code merge --to json --out master.json --in emea.xml,apac.json,americas/}.
+ * Books of any size are merged with an external merge sort: contacts are packed into a
+ * {@link ContactStore} until it reaches the memory ceiling ({@code --memory <MB>}), sorted
+ * and spilled to a temporary run file, then the runs are merged k ways straight into the output.
+ * Each run is read through its own buffer, so at most {@value #MAX_FAN_IN} runs, and no more than
+ * the memory ceiling has room to buffer, are merged at once; beyond that, consecutive runs are
+ * first merged into longer ones in as many passes as it takes.
+ * Contacts with equal CustomerIDs keep the order of the inputs; contacts without one come first.
+ * With {@code --index}, a {@link ContactLookup} is written alongside the output.
+ * @author Emily Fooe
+ *
+ */
+public class MergeConverter {
+    /** Memory ceiling for sorting, unless configured */
+    public static final long DEFAULT_MEMORY = 256L * 1024 * 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // Most runs merged in one pass, each through its own buffer
+    private static final int MAX_FAN_IN = 64;
+    private static final Comparator<String> ID_ORDER = Comparator.nullsFirst(Comparator.naturalOrder());
+
+    /**
+     * Runs the merge command
+     * @param options parsed command-line options
+     * @return process exit code
+     */
+    public static int run(CommandOptions options) throws IOException {
+        Path output = Paths.get(options.require("out"));
+        ContactFormat target = options.has("to")
+                ? ContactFormat.forName(options.get("to", null)) : ContactFormat.forFile(output);
+        if (target == null){
+            throw new IllegalArgumentException("Missing required option --to");
+        }
+        long memory = options.getInt("memory", (int) (DEFAULT_MEMORY >> 20)) * 1024L * 1024;
+        if (memory < 1){
+            throw new IllegalArgumentException("Option --memory must be at least 1");
+        }
+        boolean pretty = !options.has("compact");
+        boolean index = options.has("index");
+        if (index && Compression.isCompressed(output)){
+            throw new IllegalArgumentException("Gzipped outputs cannot be indexed");
+        }
+        if (index && !target.isText()){
+            throw new IllegalArgumentException(target + " address books cannot be indexed");
+        }
+        List<Path> inputs = getInputFiles(options, output);
+        if (inputs.isEmpty()){
+            throw new IllegalArgumentException("No address books to merge");
+        }
+        Path absolute = output.toAbsolutePath();
+        Path tempDirectory = Paths.get(options.get("temp-dir", absolute.getParent().toString()));
+
+        Merge merge = merge(inputs, output, target, pretty, memory, tempDirectory, index);
+        System.out.printf("Merged %d contacts from %d file(s) into %s (%d sorted run(s))\n",
+                merge.contacts, inputs.size(), output, merge.runs);
+        return BatchConverter.EXIT_OK;
+    }
+
+    /**
+     * Merges address books into one sorted by CustomerID
+     * @param inputs address books to merge, in any supported format
+     * @param output file to write to, replaced atomically once complete and gzipped if its name ends in ".gz"
+     * @param target format to write
+     * @param pretty whether to indent the output
+     * @param memoryLimit bytes of contacts to sort in memory before spilling a run to disk
+     * @param tempDirectory directory for runs, which are deleted before returning
+     * @param index whether to write a lookup alongside the output, which must then be uncompressed
+     * @return what was merged
+     */
+    public static Merge merge(List<Path> inputs, Path output, ContactFormat target, boolean pretty,
+                              long memoryLimit, Path tempDirectory, boolean index) throws IOException {
+        Merge merge = new Merge();
+        List<Path> runs = new ArrayList<>();
+        Batch batch = new Batch(memoryLimit);
+        try {
+            for (Path input : inputs){
+                try (ContactReader reader = open(input)) {
+                    Contact contact;
+                    while ((contact = reader.read()) != null){
+                        batch.add(contact);
+                        merge.contacts++;
+                        if (batch.isFull()){
+                            runs.add(batch.spill(tempDirectory));
+                            batch = new Batch(memoryLimit);
+                        }
+                    }
+                }
+            }
+            merge.runs = runs.size() + (batch.size() > 0 ? 1 : 0);
+            int fanIn = (int) Math.max(2, Math.min(MAX_FAN_IN, memoryLimit / BUFFER_SIZE));
+            // Leaving room for the batch in the last pass
+            List<Path> sorted = mergeRuns(new ArrayList<>(runs), fanIn - 1, fanIn, tempDirectory, runs);
+            ContactLookup.Builder lookup = index ? new ContactLookup.Builder(target, pretty) : null;
+            Path temp = ResumableConverter.createTempSibling(output);
+            try {
+                try (OutputStream out = Compression.compress(Files.newOutputStream(temp), output, null);
+                     ContactWriter writer = lookup != null ? new IndexingContactWriter(out, target, pretty, lookup)
+                             : target.newWriter(new BufferedOutputStream(out, BUFFER_SIZE), pretty)) {
+                    // Runs hold earlier contacts than the batch, so equal IDs keep their input order
+                    writeMerged(sorted, batch.sortedReader(), writer::write);
+                }
+                ContactIndex.delete(output);
+                Files.move(temp, output, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+            if (lookup != null){
+                lookup.save(output);
+            }
+            return merge;
+        } finally {
+            batch.store.close();
+            for (Path run : runs){
+                Files.deleteIfExists(run);
+            }
+        }
+    }
+
+    /**
+     * Merges consecutive runs, fanIn at a time, until no more than limit are left. Merged runs take
+     * the place of those they were merged from, so equal IDs keep their input order.
+     * @param runs runs in input order, each deleted once merged into a longer one
+     * @param created list every new run is added to, to be deleted however the merge ends
+     * @return the runs left
+     */
+    private static List<Path> mergeRuns(List<Path> runs, int limit, int fanIn, Path tempDirectory,
+                                        List<Path> created) throws IOException {
+        while (runs.size() > limit){
+            List<Path> merged = new ArrayList<>();
+            for (int start = 0; start < runs.size(); start += fanIn){
+                List<Path> group = runs.subList(start, Math.min(start + fanIn, runs.size()));
+                if (group.size() == 1){
+                    merged.add(group.get(0));
+                    continue;
+                }
+                Path run = Files.createTempFile(tempDirectory, "merge-", ".run");
+                created.add(run);
+                try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(run), BUFFER_SIZE)) {
+                    writeMerged(group, null, contact -> ContactStore.writePacked(contact, out));
+                }
+                for (Path source : group){
+                    Files.delete(source);
+                }
+                merged.add(run);
+            }
+            runs = merged;
+        }
+        return runs;
+    }
+
+    // Merges sorted runs and the batch still in memory, if any, taking the smallest CustomerID each time
+    private static void writeMerged(List<Path> runs, ContactReader batch, Sink sink) throws IOException {
+        PriorityQueue<Cursor> queue = new PriorityQueue<>(Comparator
+                .comparing((Cursor cursor) -> cursor.contact.getCustomerId(), ID_ORDER)
+                .thenComparingInt(cursor -> cursor.source));
+        List<ContactReader> readers = new ArrayList<>();
+        try {
+            for (Path run : runs){
+                readers.add(ContactStore.packedReader(new BufferedInputStream(Files.newInputStream(run), BUFFER_SIZE)));
+            }
+            if (batch != null){
+                readers.add(batch);
+            }
+            for (int i = 0; i < readers.size(); i++){
+                Cursor cursor = new Cursor(readers.get(i), i);
+                if (cursor.next()){
+                    queue.add(cursor);
+                }
+            }
+            while (!queue.isEmpty()){
+                Cursor cursor = queue.poll();
+                sink.write(cursor.contact);
+                if (cursor.next()){
+                    queue.add(cursor);
+                }
+            }
+        } finally {
+            for (ContactReader reader : readers){
+                reader.close();
+            }
+        }
+    }
+
+    private static ContactReader open(Path input) throws IOException {
+        InputStream stream = Compression.decompress(MappedInputStream.open(input), input);
+        return ContactFormat.forFile(input).newReader(stream);
+    }
+
+    /**
+     * Collects the files named by --in (comma-separated) and the arguments, expanding
+     * directories to the address books in them. The output is never an input.
+     */
+    private static List<Path> getInputFiles(CommandOptions options, Path output) throws IOException {
+        List<String> names = new ArrayList<>(options.getArguments());
+        if (options.has("in")){
+            names.addAll(0, Arrays.asList(options.get("in", null).split(",")));
+        }
+        List<Path> inputs = new ArrayList<>();
+        for (String name : names){
+            Path path = Paths.get(name.trim());
+            if (Files.isDirectory(path)){
+                try (Stream<Path> files = Files.list(path)) {
+                    inputs.addAll(files.filter(Files::isRegularFile)
+                            .filter(file -> ContactFormat.forFile(file) != null)
+                            .sorted()
+                            .collect(Collectors.toList()));
+                }
+            } else if (ContactFormat.forFile(path) == null){
+                throw new IllegalArgumentException("Unknown format of \"" + path + "\"");
+            } else if (!Files.exists(path)){
+                throw new IllegalArgumentException("No such file \"" + path + "\"");
+            } else {
+                inputs.add(path);
+            }
+        }
+        Path absolute = output.toAbsolutePath().normalize();
+        inputs.removeIf(input -> input.toAbsolutePath().normalize().equals(absolute));
+        return inputs;
+    }
+
+    // Contacts held in memory until the ceiling is reached
+    private static class Batch {
+        private final long memoryLimit;
+        private final ContactStore store;
+        private final List<String> ids = new ArrayList<>();
+        private long idBytes;
+
+        private Batch(long memoryLimit){
+            this.memoryLimit = memoryLimit;
+            // Small ceilings would otherwise be overshot by a single segment
+            int segmentSize = (int) Math.max(64 * 1024, Math.min(ContactStore.SEGMENT_SIZE, memoryLimit / 8));
+            store = new ContactStore(false, segmentSize);
+        }
+
+        private void add(Contact contact){
+            store.add(contact);
+            String customerId = contact.getCustomerId();
+            ids.add(customerId);
+            // The ID, its reference and the boxed index sorting it
+            idBytes += (customerId != null ? FieldInterner.stringSize(customerId.length()) : 0) + 4 + 16 + 4;
+        }
+
+        private int size(){
+            return store.size();
+        }
+
+        private boolean isFull(){
+            return store.getMemoryUsed() + idBytes >= memoryLimit;
+        }
+
+        // Sorting is stable, so equal IDs keep their input order
+        private Integer[] sortedOrder(){
+            Integer[] order = new Integer[store.size()];
+            for (int i = 0; i < order.length; i++){
+                order[i] = i;
+            }
+            Arrays.sort(order, Comparator.comparing(ids::get, ID_ORDER));
+            return order;
+        }
+
+        // Writes the batch in CustomerID order to a new run file and releases it
+        private Path spill(Path directory) throws IOException {
+            Path run = Files.createTempFile(directory, "merge-", ".run");
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(run), BUFFER_SIZE)) {
+                ContactStore.View view = store.view();
+                for (int index : sortedOrder()){
+                    view.moveTo(index);
+                    view.writeTo(out);
+                }
+            } catch (IOException | RuntimeException e) {
+                Files.deleteIfExists(run);
+                throw e;
+            } finally {
+                store.close();
+            }
+            return run;
+        }
+
+        private ContactReader sortedReader(){
+            Integer[] order = sortedOrder();
+            return new ContactReader() {
+                private int next;
+
+                @Override
+                public Contact read() {
+                    return next < order.length ? store.get(order[next++]) : null;
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        }
+    }
+
+    // Where merged contacts go: the output, or a longer run
+    private interface Sink {
+        void write(Contact contact) throws IOException;
+    }
+
+    // Head of one sorted source
+    private static class Cursor {
+        private final ContactReader reader;
+        private final int source;
+        private Contact contact;
+
+        private Cursor(ContactReader reader, int source){
+            this.reader = reader;
+            this.source = source;
+        }
+
+        private boolean next() throws IOException {
+            contact = reader.read();
+            return contact != null;
+        }
+    }
+
+    /**
+     * Counts of a merge
+     */
+    public static class Merge {
+        private long contacts;
+        private int runs;
+
+        public long getContacts() {
+            return contacts;
+        }
+
+        /**
+         * Gets the number of sorted runs merged, including the last one, which is never written to disk
+         */
+        public int getRuns() {
+            return runs;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.emilyfooe;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+
+/**
+ * Reads contacts from newline-delimited JSON, one object per line.
+ * Each line is parsed on its own, so a malformed line is reported by number and
+ * nothing but the current line is held in memory. Blank lines are skipped.
+ * @author Emily Fooe
+ *
+ */
+public class NdjsonContactReader implements ContactReader {
+    private final BufferedReader reader;
+    private final ContactTypeAdapter adapter;
+    private long lineNumber;
+
+    public NdjsonContactReader(BufferedReader input) {
+        this(input, FieldInterner.NONE);
+    }
+
+    /**
+     * @param input stream to read from
+     * @param interner shares repeated field values between the contacts read
+     */
+    public NdjsonContactReader(BufferedReader input, FieldInterner interner) {
+        reader = input;
+        adapter = interner == FieldInterner.NONE ? ContactTypeAdapter.INSTANCE : new ContactTypeAdapter(interner);
+    }
+
+    @Override
+    public Contact read() throws IOException {
+        String line;
+        do {
+            line = reader.readLine();
+            if (line == null){
+                return null;
+            }
+            lineNumber++;
+        } while (line.trim().isEmpty());
+        return parse(line);
+    }
+
+    // Parses a line holding exactly one contact object
+    private Contact parse(String line) throws IOException {
+        JsonReader json = new JsonReader(new StringReader(line));
+        try {
+            if (json.peek() == JsonToken.BEGIN_OBJECT){
+                Contact contact = adapter.read(json);
+                if (json.peek() == JsonToken.END_DOCUMENT){
+                    return contact;
+                }
+            }
+        } catch (IllegalStateException | IOException e) {
+            // JsonReader reports unexpected tokens as IllegalStateException
+            throw new IOException("Malformed address book: line " + lineNumber + ": " + e.getMessage(), e);
+        }
+        throw new IOException("Malformed address book: line " + lineNumber + " is not a single contact");
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
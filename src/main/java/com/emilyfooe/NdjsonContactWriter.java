@@ -0,0 +1,78 @@
+package com.emilyfooe;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes contacts as newline-delimited JSON, each a compact object on a line of its own,
+ * laid out exactly as in a compact JSON array. Such a file can be appended to, tailed,
+ * or cut into pieces at any line break, each of which is an address book by itself.
+ * @author Emily Fooe
+ *
+ */
+public class NdjsonContactWriter implements ContactWriter {
+    private final Writer output;
+    private final JsonWriter writer;
+    private final boolean closesDocument;
+    // Whether a contact precedes the next one, in this part or an earlier one
+    private boolean separate;
+
+    public NdjsonContactWriter(Writer output) {
+        this(output, true, true);
+    }
+
+    /**
+     * Creates a writer for part of an address book
+     * @param output stream to write to
+     * @param opensDocument whether this part starts the file; if not, contacts
+     *                      are written as if following those of an earlier part
+     * @param closesDocument whether this part ends the file with a line break
+     */
+    public NdjsonContactWriter(Writer output, boolean opensDocument, boolean closesDocument) {
+        this.output = output;
+        this.closesDocument = closesDocument;
+        separate = !opensDocument;
+        writer = new JsonWriter(output);
+        // Lets one JsonWriter emit many top-level objects; the output itself is strict JSON
+        writer.setLenient(true);
+        writer.setHtmlSafe(true);
+    }
+
+    @Override
+    public void write(Contact contact) throws IOException {
+        newLine();
+        ContactTypeAdapter.INSTANCE.write(writer, contact);
+    }
+
+    @Override
+    public void writeSerialized(byte[] contact) throws IOException {
+        newLine();
+        output.write(new String(contact, StandardCharsets.UTF_8));
+    }
+
+    // Line breaks go between contacts, so a serialized contact starts right after one
+    private void newLine() throws IOException {
+        if (separate){
+            output.write('\n');
+        }
+        separate = true;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        writer.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closesDocument && separate){
+            output.write('\n');
+        }
+        // JsonWriter.close rejects a document without any value
+        writer.flush();
+        output.close();
+    }
+}
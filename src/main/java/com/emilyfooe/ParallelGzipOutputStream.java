@@ -0,0 +1,143 @@
+package com.emilyfooe;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Gzips output in fixed-size blocks compressed concurrently, in the manner of pigz.
+ * Each block becomes a complete gzip member; a file of concatenated members
+ * is valid gzip and decompresses as a whole with gunzip or GZIPInputStream.
+ * Compression costs a slightly worse ratio, as blocks do not share a dictionary.
+ * @author Emily Fooe
+ *
+ */
+public class ParallelGzipOutputStream extends OutputStream {
+    static final int BLOCK_SIZE = 1024 * 1024;
+
+    private final OutputStream out;
+    private final ExecutorService compressor;
+    private final int maxPending;
+    // Blocks in output order; the oldest is written once the queue is full
+    private final Queue<Future<byte[]>> pending = new ArrayDeque<>();
+    private byte[] block = new byte[BLOCK_SIZE];
+    private int length;
+    private boolean written;
+    private boolean closed;
+
+    /**
+     * @param out stream to write the compressed members to, closed along with this one
+     * @param compressor pool to compress blocks on; shared pools are fine
+     */
+    public ParallelGzipOutputStream(OutputStream out, ExecutorService compressor){
+        this.out = out;
+        this.compressor = compressor;
+        // Enough blocks in flight to keep the pool busy, without buffering the whole file
+        int threads = Runtime.getRuntime().availableProcessors();
+        if (compressor instanceof ThreadPoolExecutor){
+            threads = ((ThreadPoolExecutor) compressor).getMaximumPoolSize();
+        } else if (compressor instanceof ForkJoinPool){
+            threads = ((ForkJoinPool) compressor).getParallelism();
+        }
+        this.maxPending = 2 * Math.max(1, threads);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (length == block.length){
+            submit();
+        }
+        block[length++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int count) throws IOException {
+        while (count > 0){
+            if (length == block.length){
+                submit();
+            }
+            int copied = Math.min(count, block.length - length);
+            System.arraycopy(buffer, offset, block, length, copied);
+            length += copied;
+            offset += copied;
+            count -= copied;
+        }
+    }
+
+    /**
+     * Writes out blocks that are already compressed. The block being filled is
+     * not cut short, since every flush would otherwise start a new gzip member.
+     */
+    @Override
+    public void flush() throws IOException {
+        while (!pending.isEmpty() && pending.peek().isDone()){
+            writeNext();
+        }
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed){
+            return;
+        }
+        closed = true;
+        try {
+            // An empty file still needs one member to be valid gzip
+            if (length > 0 || !written){
+                submit();
+            }
+            while (!pending.isEmpty()){
+                writeNext();
+            }
+        } finally {
+            for (Future<byte[]> future : pending){
+                future.cancel(false);
+            }
+            out.close();
+        }
+    }
+
+    private void submit() throws IOException {
+        byte[] data = block;
+        int count = length;
+        pending.add(compressor.submit(() -> compress(data, count)));
+        written = true;
+        block = new byte[BLOCK_SIZE];
+        length = 0;
+        while (pending.size() > maxPending){
+            writeNext();
+        }
+    }
+
+    private void writeNext() throws IOException {
+        try {
+            out.write(pending.remove().get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while compressing", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException){
+                throw (IOException) cause;
+            }
+            throw new IOException("Failed to compress block", cause);
+        }
+    }
+
+    private static byte[] compress(byte[] data, int count) throws IOException {
+        ByteArrayOutputStream member = new ByteArrayOutputStream(count / 4 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(member)) {
+            gzip.write(data, 0, count);
+        }
+        return member.toByteArray();
+    }
+}
@@ -0,0 +1,140 @@
+package com.emilyfooe;
+
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Renders the combined progress of one or more conversions on a single console line.
+ * Redraws are throttled, so the cost per callback is a lock and a clock read.
+ * @author Emily Fooe
+ *
+ */
+public class ProgressBar implements ConversionListener {
+    private static final long REDRAW_INTERVAL_NANOS = 250_000_000L;
+    private static final int WIDTH = 30;
+
+    private final PrintStream out;
+    private final int totalFiles;
+    private final long startNanos = System.nanoTime();
+    // Latest counters of conversions still running, copied in from their threads
+    private final Map<ConversionProgress, long[]> active = new HashMap<>();
+    private long finishedContacts;
+    private long finishedBytesRead;
+    private long finishedTotalBytes;
+    private long errors;
+    private int finishedFiles;
+    private long lastRedraw;
+    private boolean drawn;
+
+    /**
+     * @param out console stream to draw on, usually System.err
+     * @param totalFiles number of conversions expected
+     */
+    public ProgressBar(PrintStream out, int totalFiles){
+        this.out = out;
+        this.totalFiles = totalFiles;
+    }
+
+    @Override
+    public synchronized void onStart(ConversionProgress progress) {
+        active.put(progress, snapshot(progress));
+        redraw(false);
+    }
+
+    @Override
+    public synchronized void onProgress(ConversionProgress progress) {
+        active.put(progress, snapshot(progress));
+        redraw(false);
+    }
+
+    @Override
+    public synchronized void onError(ConversionProgress progress, Exception error) {
+        errors++;
+    }
+
+    @Override
+    public synchronized void onFinish(ConversionProgress progress) {
+        finish(progress);
+    }
+
+    @Override
+    public synchronized void onFailure(ConversionProgress progress, Exception error) {
+        errors++;
+        finish(progress);
+    }
+
+    private void finish(ConversionProgress progress){
+        active.remove(progress);
+        finishedContacts += progress.getContacts();
+        finishedBytesRead += Math.max(progress.getTotalBytes(), progress.getBytesRead());
+        finishedTotalBytes += Math.max(progress.getTotalBytes(), 0);
+        finishedFiles++;
+        redraw(true);
+    }
+
+    /**
+     * Erases the bar so other output can be printed; it is redrawn on the next update
+     */
+    public synchronized void clear(){
+        if (drawn){
+            out.print("\r" + repeat(' ', 100) + "\r");
+            out.flush();
+            drawn = false;
+        }
+    }
+
+    /**
+     * Draws the final state and moves to a new line
+     */
+    public synchronized void close(){
+        redraw(true);
+        out.println();
+    }
+
+    private static long[] snapshot(ConversionProgress progress){
+        return new long[] {progress.getContacts(), progress.getBytesRead(), progress.getTotalBytes()};
+    }
+
+    private void redraw(boolean force){
+        long now = System.nanoTime();
+        if (!force && now - lastRedraw < REDRAW_INTERVAL_NANOS){
+            return;
+        }
+        lastRedraw = now;
+
+        long contacts = finishedContacts;
+        long bytesRead = finishedBytesRead;
+        long totalBytes = finishedTotalBytes;
+        for (long[] counters : active.values()){
+            contacts += counters[0];
+            bytesRead += counters[1];
+            totalBytes += Math.max(counters[2], 0);
+        }
+        double fraction = totalBytes > 0 ? Math.min(1.0, (double) bytesRead / totalBytes) : 0;
+        int filled = (int) (fraction * WIDTH);
+        double seconds = (now - startNanos) / 1e9;
+        double megabytesPerSecond = seconds > 0 ? bytesRead / 1e6 / seconds : 0;
+
+        StringBuilder line = new StringBuilder("\r[");
+        line.append(repeat('=', filled)).append(repeat(' ', WIDTH - filled)).append("] ");
+        line.append(String.format("%3d%% %,d contacts %.1f MB/s", (int) (fraction * 100), contacts, megabytesPerSecond));
+        if (totalFiles > 1){
+            line.append(String.format(" %d/%d files", finishedFiles, totalFiles));
+        }
+        if (errors > 0){
+            line.append(String.format(" %d error(s)", errors));
+        }
+        out.print(line);
+        out.flush();
+        drawn = true;
+    }
+
+    private static String repeat(char c, int count){
+        StringBuilder builder = new StringBuilder(count);
+        for (int i = 0; i < count; i++){
+            builder.append(c);
+        }
+        return builder.toString();
+    }
+}
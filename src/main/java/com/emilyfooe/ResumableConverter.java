@@ -0,0 +1,351 @@
+package com.emilyfooe;
+
+import org.xml.sax.SAXException;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Converts a large address book so that an interrupted run picks up where it stopped.
+ * The input is split into contact-aligned ranges as by {@link ChunkedConverter}, converted in
+ * order into "&lt;output&gt;.partial". After each range the partial output is forced to disk and a
+ * checkpoint is saved in "&lt;output&gt;.checkpoint": the input offset to continue from, the contacts
+ * written and the length of the partial output. A later run over the same input and settings
+ * truncates the partial output to that length and continues from the offset; anything else
+ * starts over. The partial output is renamed over the output once complete. It is locked while
+ * it is written, so a second conversion to the same output fails instead of writing over it.
+ * Gzipped inputs cannot be split, nor can binary ones, so those are converted whole.
+ * @author Emily Fooe
+ *
+ */
+public class ResumableConverter {
+    /** Input bytes converted between checkpoints, unless configured */
+    public static final long DEFAULT_INTERVAL = 64L * 1024 * 1024;
+    public static final String PARTIAL_EXTENSION = ".partial";
+    public static final String CHECKPOINT_EXTENSION = ".checkpoint";
+    private static final String CHECKPOINT_HEADER = "#checkpoint";
+    private static final String SEPARATOR = "\t";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Converts an address book, resuming from the checkpoint of an earlier run if there is a usable one
+     * @param input address book to read
+     * @param output file to write to, replaced atomically once complete
+     * @param target format to write
+     * @param pretty whether to indent the output
+     * @param interval input bytes to convert between checkpoints
+     * @param listener notified of progress, errors and completion
+     * @param compressor pool to gzip output blocks on in parallel, or null to compress on this thread
+     * @return number of contacts in the output, including those written by earlier runs
+     */
+    public static long convert(Path input, Path output, ContactFormat target, boolean pretty, long interval,
+                               ConversionListener listener, ExecutorService compressor) throws IOException {
+        if (interval < 1){
+            throw new IllegalArgumentException("Checkpoint interval must be at least one byte");
+        }
+        ContactFormat source = ContactFormat.forFile(input);
+        List<ChunkedConverter.Range> ranges = null;
+        try (FileChannel channel = FileChannel.open(input, StandardOpenOption.READ)) {
+            if (!Compression.isCompressed(input)){
+                int chunks = (int) Math.min(Integer.MAX_VALUE, Math.max(1, channel.size() / interval));
+                ranges = ChunkedConverter.split(channel, source, chunks);
+            }
+            if (ranges != null && !ranges.isEmpty()){
+                ChunkedConverter.checkOutside(channel, source, ranges);
+                return convertRanges(input, source, channel, ranges, output, target, pretty, listener, compressor);
+            }
+        }
+        // Converted in one go, still through the partial output
+        try {
+            return StreamingConverter.convertFile(input, output, target, pretty, null, null, listener, compressor);
+        } catch (SAXException e) {
+            // Only thrown when validating
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Converts the ranges in order, from the checkpoint on if it describes this conversion
+    private static long convertRanges(Path input, ContactFormat source, FileChannel channel,
+                                      List<ChunkedConverter.Range> ranges, Path output, ContactFormat target,
+                                      boolean pretty, ConversionListener listener, ExecutorService compressor) throws IOException {
+        // Locked before the checkpoint is read, as only the conversion holding the lock may touch it
+        try (PartialOutput partial = PartialOutput.open(output, true)) {
+            return convertRanges(input, source, channel, ranges, partial, output, target, pretty, listener,
+                    compressor);
+        }
+    }
+
+    // Converts the ranges into the locked partial output
+    private static long convertRanges(Path input, ContactFormat source, FileChannel channel,
+                                      List<ChunkedConverter.Range> ranges, PartialOutput partial, Path output,
+                                      ContactFormat target, boolean pretty, ConversionListener listener,
+                                      ExecutorService compressor) throws IOException {
+        Path checkpointFile = checkpointFile(output);
+        // Everything that decides the partial output's bytes, besides the contacts themselves
+        String settings = String.join(",", target.name().toLowerCase(), pretty ? "pretty" : "compact",
+                Compression.isCompressed(output) ? "gzip" : "plain", Integer.toString(ranges.size()));
+        String identity = String.join(SEPARATOR, input.toAbsolutePath().normalize().toString(),
+                Long.toString(channel.size()), Long.toString(Files.getLastModifiedTime(input).toMillis()), settings);
+
+        Checkpoint checkpoint = Checkpoint.load(checkpointFile, identity);
+        int first = ranges.size();
+        FileChannel out = partial.getChannel();
+        if (checkpoint != null && out.size() >= checkpoint.bytes){
+            first = 0;
+            while (first < ranges.size() && ranges.get(first).getStart() != checkpoint.offset){
+                first++;
+            }
+        }
+        if (first == ranges.size()){
+            // The checkpoint is missing, stale or does not line up with the ranges
+            Files.deleteIfExists(checkpointFile);
+            first = 0;
+            checkpoint = new Checkpoint(0, 0, 0);
+        }
+
+        long[] bytesRead = {ranges.get(first).getStart()};
+        ConversionProgress progress = null;
+        long contacts = checkpoint.contacts;
+        try {
+            // Whatever was written after the checkpoint is discarded
+            out.truncate(checkpoint.bytes);
+            out.position(checkpoint.bytes);
+            long resumedBytes = checkpoint.bytes;
+            // Each range's writer completes its own part of the document, but the file stays open
+            CountingOutputStream written = new CountingOutputStream(partial.newOutputStream());
+            progress = new ConversionProgress(input.getFileName().toString(), channel.size(),
+                    () -> bytesRead[0], () -> resumedBytes + written.getCount());
+            progress.addContacts(checkpoint.contacts);
+            listener.onStart(progress);
+
+            for (int i = first; i < ranges.size(); i++){
+                ChunkedConverter.Range range = ranges.get(i);
+                boolean last = i == ranges.size() - 1;
+                try (ContactReader reader = source.newReader(range.open(channel));
+                     ContactWriter writer = target.newFragmentWriter(new BufferedOutputStream(
+                             Compression.compress(written, output, compressor), BUFFER_SIZE), pretty, i == 0, last)) {
+                    contacts += StreamingConverter.convert(reader, writer, progress, listener);
+                }
+                bytesRead[0] = range.getEnd();
+                // The checkpoint must never describe output that is not on disk yet
+                out.force(false);
+                if (!last){
+                    new Checkpoint(ranges.get(i + 1).getStart(), contacts, out.position())
+                            .save(checkpointFile, identity);
+                }
+                listener.onProgress(progress);
+            }
+            out.force(true);
+        } catch (IOException | RuntimeException e) {
+            // The partial output and checkpoint are kept for the next run
+            if (progress != null){
+                listener.onFailure(progress, e);
+            }
+            throw e;
+        }
+        ContactIndex.delete(output);
+        partial.moveTo(output);
+        Files.deleteIfExists(checkpointFile);
+        listener.onFinish(progress);
+        return contacts;
+    }
+
+    /**
+     * Gets the file an output is written to until it is complete, e.g. contacts.json.partial
+     */
+    public static Path partialFile(Path output){
+        return output.resolveSibling(output.getFileName() + PARTIAL_EXTENSION);
+    }
+
+    /**
+     * Gets the checkpoint kept while an output is written, e.g. contacts.json.checkpoint
+     */
+    public static Path checkpointFile(Path output){
+        return output.resolveSibling(output.getFileName() + CHECKPOINT_EXTENSION);
+    }
+
+    /**
+     * Creates an empty file next to a file, to write its replacement in and rename it over the file.
+     * Unlike {@link Files#createTempFile}, which makes files readable by their owner only, it gets the
+     * permissions of any new file, so a replaced output stays as readable as a freshly written one.
+     * @param file file to be replaced
+     * @return the new file, e.g. contacts.json.8301276405.tmp
+     */
+    public static Path createTempSibling(Path file) throws IOException {
+        Path directory = file.toAbsolutePath().getParent();
+        while (true){
+            Path sibling = directory.resolve(file.getFileName() + "."
+                    + Long.toUnsignedString(ThreadLocalRandom.current().nextLong()) + ".tmp");
+            try {
+                return Files.createFile(sibling);
+            } catch (FileAlreadyExistsException e) {
+                // Taken by another writer
+            }
+        }
+    }
+
+    /**
+     * The partial output of a conversion, open for writing and locked against other conversions
+     * to the same output: by a file lock against other processes, and by a set of the files being
+     * written against other threads, as a second channel to a locked file would not be kept out
+     * and closing it may release the lock on some platforms
+     */
+    static class PartialOutput implements Closeable {
+        private static final Set<Path> writing = ConcurrentHashMap.newKeySet();
+
+        private final Path file;
+        private final FileChannel channel;
+        private final boolean keep;
+        private boolean moved;
+
+        private PartialOutput(Path file, FileChannel channel, boolean keep){
+            this.file = file;
+            this.channel = channel;
+            this.keep = keep;
+        }
+
+        /**
+         * Opens and locks the partial output of an output, leaving its content as it is
+         * @param output file being converted to
+         * @param keep whether the partial output is kept if closed before it was renamed, to resume from
+         * @throws IOException if another conversion is writing the same output
+         */
+        static PartialOutput open(Path output, boolean keep) throws IOException {
+            Path file = partialFile(output).toAbsolutePath().normalize();
+            if (!writing.add(file)){
+                throw new IOException("Another conversion is writing " + output);
+            }
+            FileChannel channel = null;
+            try {
+                channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                if (channel.tryLock() == null){
+                    throw new IOException("Another process is writing " + output);
+                }
+                return new PartialOutput(file, channel, keep);
+            } catch (IOException | RuntimeException e) {
+                if (channel != null){
+                    channel.close();
+                }
+                writing.remove(file);
+                throw e;
+            }
+        }
+
+        FileChannel getChannel(){
+            return channel;
+        }
+
+        /**
+         * Gets a stream writing at the channel's position; closing it only flushes, so the lock is kept
+         */
+        OutputStream newOutputStream(){
+            return new FilterOutputStream(Channels.newOutputStream(channel)) {
+                @Override
+                public void write(byte[] buffer, int offset, int length) throws IOException {
+                    out.write(buffer, offset, length);
+                }
+
+                @Override
+                public void close() throws IOException {
+                    flush();
+                }
+            };
+        }
+
+        /**
+         * Renames the complete partial output over the output, still holding the lock
+         */
+        void moveTo(Path output) throws IOException {
+            Files.move(file, output, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            moved = true;
+        }
+
+        /**
+         * Releases the lock, first deleting the partial output unless it was renamed or is kept
+         */
+        @Override
+        public void close() throws IOException {
+            try {
+                if (!moved && !keep){
+                    Files.deleteIfExists(file);
+                }
+            } finally {
+                try {
+                    channel.close();
+                } finally {
+                    writing.remove(file);
+                }
+            }
+        }
+    }
+
+    /**
+     * Where a conversion stands after a range: a tab-separated line identifying the input
+     * (path, size, modification time) and settings, then one of offset, contacts and output bytes
+     */
+    private static class Checkpoint {
+        private final long offset;
+        private final long contacts;
+        private final long bytes;
+
+        private Checkpoint(long offset, long contacts, long bytes){
+            this.offset = offset;
+            this.contacts = contacts;
+            this.bytes = bytes;
+        }
+
+        // Returns null if there is no checkpoint, or it was saved for another input or settings
+        private static Checkpoint load(Path file, String identity) throws IOException {
+            try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                String header = reader.readLine();
+                String line = reader.readLine();
+                if (header == null || line == null || !header.equals(CHECKPOINT_HEADER + SEPARATOR + identity)){
+                    return null;
+                }
+                String[] fields = line.split(SEPARATOR);
+                if (fields.length != 3){
+                    return null;
+                }
+                return new Checkpoint(Long.parseLong(fields[0]), Long.parseLong(fields[1]), Long.parseLong(fields[2]));
+            } catch (NoSuchFileException | NumberFormatException e) {
+                return null;
+            }
+        }
+
+        // Replaces the previous checkpoint atomically, so an interruption leaves one or the other
+        private void save(Path file, String identity) throws IOException {
+            Path temp = createTempSibling(file);
+            try {
+                try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                    writer.write(CHECKPOINT_HEADER + SEPARATOR + identity);
+                    writer.newLine();
+                    writer.write(String.join(SEPARATOR, Long.toString(offset), Long.toString(contacts),
+                            Long.toString(bytes)));
+                    writer.newLine();
+                }
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package com.emilyfooe;
+
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.Validator;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Validates XML address books against XSD schemas.
+ * Each schema is compiled once and recompiled only when its file changes.
+ * Compiled schemas are thread-safe and shared; validators are not, so each
+ * thread keeps its own. Both are kept by the {@link ConversionContext}.
+ * @author Emily Fooe
+ *
+ */
+public class SchemaValidator {
+    /**
+     * Gets the compiled form of a schema from the shared {@link ConversionContext},
+     * compiling it on first use or if it changed on disk
+     * @param schemaFile .xsd file
+     */
+    public static Schema getSchema(Path schemaFile) throws SAXException, IOException {
+        return ConversionContext.getDefault().getSchema(schemaFile);
+    }
+
+    /**
+     * Gets the calling thread's validator for a schema
+     * @param schema compiled schema
+     */
+    public static Validator getValidator(Schema schema){
+        return ConversionContext.getDefault().getValidator(schema);
+    }
+
+    /**
+     * Validates an address book, stopping at the first error
+     * @param schemaFile .xsd file
+     * @param xmlFile address book to validate
+     * @throws SAXException describing the first error
+     */
+    public static void validate(Path schemaFile, Path xmlFile) throws SAXException, IOException {
+        try (InputStream input = open(xmlFile)) {
+            getValidator(getSchema(schemaFile)).validate(source(input, xmlFile));
+        }
+    }
+
+    /**
+     * Validates an address book, collecting every error instead of stopping at the first
+     * @param schema compiled schema
+     * @param xmlFile address book to validate
+     * @return errors in document order, empty if the file is valid
+     */
+    public static List<ValidationError> collectErrors(Schema schema, Path xmlFile) throws IOException {
+        try (InputStream input = open(xmlFile)) {
+            return collectErrors(schema, input, xmlFile);
+        }
+    }
+
+    /**
+     * Validates an address book read from a stream, collecting every error
+     * @param schema compiled schema
+     * @param input XML address book
+     * @param xmlFile path the address book is known by, used in error reports
+     * @return errors in document order, empty if the address book is valid
+     */
+    public static List<ValidationError> collectErrors(Schema schema, InputStream input, Path xmlFile)
+            throws IOException {
+        List<ValidationError> errors = new ArrayList<>();
+        Validator validator = getValidator(schema);
+        validator.setErrorHandler(new CollectingErrorHandler(xmlFile, errors));
+        try {
+            validator.validate(source(input, xmlFile));
+        } catch (SAXParseException e) {
+            // Fatal errors end the parse after being reported to the handler
+        } catch (SAXException e) {
+            errors.add(new ValidationError(xmlFile, -1, -1, e.getMessage()));
+        } finally {
+            validator.setErrorHandler(null);
+        }
+        return errors;
+    }
+
+    // Gzipped address books are validated without decompressing them to disk
+    private static InputStream open(Path xmlFile) throws IOException {
+        return Compression.decompress(MappedInputStream.open(xmlFile), xmlFile);
+    }
+
+    // The system ID keeps relative references and error locations tied to the file
+    private static StreamSource source(InputStream input, Path xmlFile){
+        return new StreamSource(input, xmlFile.toUri().toString());
+    }
+
+    /**
+     * Validates every .xml (or .xml.gz) file in a directory concurrently
+     * @param schemaFile .xsd file, compiled once for all files
+     * @param directory directory to search (not recursive)
+     * @param threads number of worker threads
+     * @return errors per file, in file name order
+     */
+    public static Map<Path, List<ValidationError>> validateDirectory(Path schemaFile, Path directory,
+                                                                     int threads) throws SAXException, IOException, InterruptedException {
+        Schema schema = getSchema(schemaFile);
+        List<Path> files;
+        try (Stream<Path> list = Files.list(directory)) {
+            files = list.filter(path -> ContactFormat.forFile(path) == ContactFormat.XML)
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+
+        Map<Path, List<ValidationError>> report = new LinkedHashMap<>();
+        if (files.isEmpty()){
+            return report;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, files.size()));
+        try {
+            Map<Path, Future<List<ValidationError>>> pending = new LinkedHashMap<>();
+            for (Path file : files){
+                pending.put(file, executor.submit(() -> collectErrors(schema, file)));
+            }
+            for (Map.Entry<Path, Future<List<ValidationError>>> entry : pending.entrySet()){
+                try {
+                    report.put(entry.getKey(), entry.getValue().get());
+                } catch (ExecutionException e) {
+                    // A file that cannot be read at all is reported as a single error
+                    ValidationError error = new ValidationError(entry.getKey(), -1, -1, e.getCause().getMessage());
+                    report.put(entry.getKey(), Collections.singletonList(error));
+                }
+            }
+            return report;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Runs the validate command, e.g. {@code validate --schema schemas/contact.xsd --in input/ --threads 8}
+     * @param options parsed command-line options
+     * @return process exit code, nonzero if any file is invalid
+     */
+    public static int run(CommandOptions options) throws SAXException, IOException, InterruptedException {
+        Path schemaFile = Paths.get(options.get("schema", "schemas/contact.xsd"));
+        Path directory = Paths.get(options.get("in", "input"));
+        int threads = options.getInt("threads", Runtime.getRuntime().availableProcessors());
+        if (threads < 1){
+            throw new IllegalArgumentException("Option --threads must be at least 1");
+        }
+
+        Map<Path, List<ValidationError>> report = validateDirectory(schemaFile, directory, threads);
+        int invalid = 0;
+        for (Map.Entry<Path, List<ValidationError>> entry : report.entrySet()){
+            List<ValidationError> errors = entry.getValue();
+            if (errors.isEmpty()){
+                System.out.printf("[VALID] %s\n", entry.getKey().getFileName());
+                continue;
+            }
+            invalid++;
+            System.err.printf("[INVALID] %s (%d error(s))\n", entry.getKey().getFileName(), errors.size());
+            for (ValidationError error : errors){
+                System.err.println("  " + error);
+            }
+        }
+        System.out.printf("%d of %d file(s) valid\n", report.size() - invalid, report.size());
+        return invalid == 0 ? BatchConverter.EXIT_OK : BatchConverter.EXIT_FAILED;
+    }
+
+    // Collects errors and warnings instead of aborting on the first one
+    private static class CollectingErrorHandler implements ErrorHandler {
+        private final Path file;
+        private final List<ValidationError> errors;
+
+        private CollectingErrorHandler(Path file, List<ValidationError> errors){
+            this.file = file;
+            this.errors = errors;
+        }
+
+        @Override
+        public void warning(SAXParseException exception) {
+            // Warnings do not make a document invalid
+        }
+
+        @Override
+        public void error(SAXParseException exception) {
+            errors.add(new ValidationError(file, exception));
+        }
+
+        @Override
+        public void fatalError(SAXParseException exception) throws SAXException {
+            errors.add(new ValidationError(file, exception));
+            throw exception;
+        }
+    }
+}
@@ -0,0 +1,395 @@
+package com.emilyfooe;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Writes an address book as a number of smaller ones, as laid out by a {@link Sharding}.
+ * Contacts are handed to the shards' writers in batches on the sharding's pool, so the
+ * caller only reads and assigns them. Batches of a shard are written in order, one after
+ * another, while different shards are written concurrently; at most a few batches are
+ * pending at a time, so a slow disk holds the reader back instead of filling the heap.
+ * Closing the writer completes every shard and writes the manifest, a tab-separated
+ * header "#shards, format, policy, limit, shards, contacts" followed by one line
+ * of file name, contacts and bytes per shard.
+ * Each shard and the manifest are renamed into place once complete, so none is ever seen truncated.
+ * A failure in any shard deletes them all and is rethrown by the next write or by close.
+ * @author Emily Fooe
+ *
+ */
+public class ShardedContactWriter implements ContactWriter {
+    private static final String MANIFEST_HEADER = "#shards";
+    private static final String SEPARATOR = "\t";
+    private static final int BATCH_SIZE = 1024;
+    private static final int MAX_PENDING_BATCHES = 16;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // Bounds of what a format adds around each contact and around the document,
+    // so that shards bounded by size never exceed the limit
+    private static final int SEPARATOR_ALLOWANCE = 4;
+    private static final int DOCUMENT_ALLOWANCE = 128;
+
+    private final Path output;
+    private final ContactFormat format;
+    private final boolean pretty;
+    private final Sharding sharding;
+    private final Semaphore pending = new Semaphore(MAX_PENDING_BATCHES);
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private final LongAdder bytesWritten = new LongAdder();
+    // Added to by the reading thread, or by the single lane of size-bounded shards
+    private final List<Shard> shards = new ArrayList<>();
+    private final List<Lane> lanes = new ArrayList<>();
+    private Lane current;
+    private boolean closed;
+
+    /**
+     * Starts a sharded output, deleting the shards of any earlier one listed in its manifest
+     * @param output where the single output would have been; shards are written next to it,
+     *               gzipped if its name ends in ".gz"
+     * @param format format of every shard
+     * @param pretty whether to indent the output
+     * @param sharding how to split the output
+     */
+    public ShardedContactWriter(Path output, ContactFormat format, boolean pretty, Sharding sharding)
+            throws IOException {
+        this.output = output;
+        this.format = format;
+        this.pretty = pretty;
+        this.sharding = sharding;
+        deleteShards(output);
+        if (sharding.getPolicy() == Sharding.Policy.HASH){
+            for (int i = 0; i < sharding.getLimit(); i++){
+                lanes.add(new Lane(newShard()));
+            }
+        }
+    }
+
+    @Override
+    public void write(Contact contact) throws IOException {
+        checkFailure();
+        Lane lane;
+        switch (sharding.getPolicy()){
+            case HASH:
+                String customerId = contact.getCustomerId();
+                lane = lanes.get(customerId == null ? 0
+                        : (int) Long.remainderUnsigned(Deduplicator.hash(customerId), sharding.getLimit()));
+                break;
+            case COUNT:
+                if (current == null || current.assigned == sharding.getLimit()){
+                    if (current != null){
+                        finish(current);
+                    }
+                    current = new Lane(newShard());
+                    lanes.add(current);
+                }
+                lane = current;
+                break;
+            default:
+                if (current == null){
+                    // Shards are opened by the lane itself, as only it knows their sizes
+                    current = new Lane(null);
+                    lanes.add(current);
+                }
+                lane = current;
+                break;
+        }
+        lane.batch.add(contact);
+        lane.assigned++;
+        if (lane.batch.size() == BATCH_SIZE){
+            submit(lane);
+        }
+    }
+
+    /**
+     * Appends a serialized contact, read back into its fields, which batches hold and
+     * hash sharding assigns shards by
+     */
+    @Override
+    public void writeSerialized(byte[] contact) throws IOException {
+        write(format.deserialize(contact));
+    }
+
+    /**
+     * Writes every pending batch and flushes the open shards
+     */
+    @Override
+    public void flush() throws IOException {
+        for (Lane lane : lanes){
+            if (!lane.batch.isEmpty()){
+                submit(lane);
+            }
+        }
+        await();
+        for (Shard shard : shards){
+            if (shard.writer != null && !shard.closed){
+                shard.writer.flush();
+            }
+        }
+    }
+
+    /**
+     * Completes every shard and writes the manifest; the shards are deleted if any failed
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed){
+            return;
+        }
+        closed = true;
+        if (lanes.isEmpty()){
+            // An empty address book still gets a shard
+            lanes.add(new Lane(sharding.getPolicy() == Sharding.Policy.SIZE ? null : newShard()));
+        }
+        for (Lane lane : lanes){
+            if (!lane.finished){
+                finish(lane);
+            }
+        }
+        await();
+        if (failure.get() == null){
+            writeManifest();
+            return;
+        }
+        for (Shard shard : shards){
+            try {
+                if (shard.writer != null && !shard.closed){
+                    shard.writer.close();
+                }
+            } catch (IOException e) {
+                // Deleted next; the first failure is what matters
+            }
+            try {
+                if (shard.temp != null){
+                    Files.deleteIfExists(shard.temp);
+                }
+                Files.deleteIfExists(shard.file);
+            } catch (IOException e) {
+                failure.get().addSuppressed(e);
+            }
+        }
+        checkFailure();
+    }
+
+    /**
+     * Gets the bytes written to every shard so far, compressed if they are gzipped
+     */
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    /**
+     * Deletes the shards listed in the manifest of a sharded output, and the manifest
+     * @param output where the single output would have been
+     */
+    public static void deleteShards(Path output) throws IOException {
+        Path manifest = Sharding.manifestFile(output);
+        try (BufferedReader reader = Files.newBufferedReader(manifest, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null){
+                if (!line.startsWith(MANIFEST_HEADER) && !line.isEmpty()){
+                    // Names are confined to the manifest's directory
+                    Path name = Paths.get(line.split(SEPARATOR)[0]);
+                    if (name.getNameCount() == 1 && !name.toString().equals("..")){
+                        Files.deleteIfExists(manifest.resolveSibling(name));
+                    }
+                }
+            }
+        } catch (NoSuchFileException e) {
+            return;
+        }
+        Files.delete(manifest);
+    }
+
+    private Shard newShard(){
+        synchronized (shards){
+            if (shards.size() == Sharding.MAX_SHARDS){
+                throw new IllegalStateException("More than " + Sharding.MAX_SHARDS + " shards");
+            }
+            Shard shard = new Shard(Sharding.shardFile(output, format, shards.size() + 1));
+            shards.add(shard);
+            return shard;
+        }
+    }
+
+    // Hands the lane's batch to its writer, after the batches before it
+    private void submit(Lane lane) throws IOException {
+        List<Contact> batch = lane.batch;
+        lane.batch = new ArrayList<>(BATCH_SIZE);
+        enqueue(lane, () -> writeBatch(lane, batch));
+    }
+
+    // Writes the lane's last batch and closes its shard
+    private void finish(Lane lane) throws IOException {
+        submit(lane);
+        lane.finished = true;
+        enqueue(lane, () -> {
+            if (lane.shard == null){
+                lane.shard = newShard();
+            }
+            lane.shard.close();
+        });
+    }
+
+    private void enqueue(Lane lane, ShardTask task) throws IOException {
+        try {
+            pending.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for shard writers");
+        }
+        lane.tail = lane.tail.thenRunAsync(() -> {
+            try {
+                // Once a shard has failed, the rest of the output is not worth writing
+                if (failure.get() == null){
+                    task.run();
+                }
+            } catch (IOException | RuntimeException e) {
+                failure.compareAndSet(null, e);
+            } finally {
+                pending.release();
+            }
+        }, sharding.getWriters());
+    }
+
+    private void writeBatch(Lane lane, List<Contact> batch) throws IOException {
+        if (sharding.getPolicy() != Sharding.Policy.SIZE){
+            for (Contact contact : batch){
+                lane.shard.open().write(contact);
+                lane.shard.contacts++;
+            }
+            return;
+        }
+        for (Contact contact : batch){
+            byte[] serialized = format.serialize(contact, pretty);
+            long size = serialized.length + SEPARATOR_ALLOWANCE;
+            if (lane.shard == null || lane.shard.contacts > 0 && lane.shard.size + size > sharding.getLimit()){
+                if (lane.shard != null){
+                    lane.shard.close();
+                }
+                lane.shard = newShard();
+            }
+            lane.shard.open().writeSerialized(serialized);
+            lane.shard.contacts++;
+            lane.shard.size += size;
+        }
+    }
+
+    // Waits for every lane to run out of work
+    private void await() throws IOException {
+        for (Lane lane : lanes){
+            lane.tail.join();
+        }
+        checkFailure();
+    }
+
+    private void checkFailure() throws IOException {
+        Throwable cause = failure.get();
+        if (cause instanceof IOException){
+            throw new IOException(cause.getMessage(), cause);
+        }
+        if (cause != null){
+            throw (RuntimeException) cause;
+        }
+    }
+
+    private void writeManifest() throws IOException {
+        long contacts = 0;
+        for (Shard shard : shards){
+            contacts += shard.contacts;
+        }
+        Path manifest = Sharding.manifestFile(output);
+        Path temp = ResumableConverter.createTempSibling(manifest);
+        try {
+            try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                writer.write(String.join(SEPARATOR, MANIFEST_HEADER, format.name().toLowerCase(),
+                        sharding.getPolicy().getName(), Long.toString(sharding.getLimit()),
+                        Integer.toString(shards.size()), Long.toString(contacts)));
+                writer.newLine();
+                for (Shard shard : shards){
+                    writer.write(String.join(SEPARATOR, shard.file.getFileName().toString(),
+                            Long.toString(shard.contacts), Long.toString(shard.bytes.getCount())));
+                    writer.newLine();
+                }
+            }
+            Files.move(temp, manifest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    // Writes one batch or closes a shard; IOException is not allowed in a Runnable
+    private interface ShardTask {
+        void run() throws IOException;
+    }
+
+    // A sequence of batches written one after another, to one shard or a run of them
+    private static class Lane {
+        private Shard shard;
+        private List<Contact> batch = new ArrayList<>(BATCH_SIZE);
+        private long assigned;
+        private boolean finished;
+        private CompletableFuture<Void> tail = CompletableFuture.completedFuture(null);
+
+        private Lane(Shard shard){
+            this.shard = shard;
+        }
+    }
+
+    // One output file, written to a temporary file from its first contact and renamed once complete
+    private class Shard {
+        private final Path file;
+        private Path temp;
+        private CountingOutputStream bytes;
+        private ContactWriter writer;
+        private long contacts;
+        // Estimated from above, for shards bounded by size
+        private long size = DOCUMENT_ALLOWANCE;
+        private boolean closed;
+
+        private Shard(Path file){
+            this.file = file;
+        }
+
+        private ContactWriter open() throws IOException {
+            if (writer == null){
+                temp = ResumableConverter.createTempSibling(file);
+                bytes = new CountingOutputStream(Files.newOutputStream(temp)) {
+                    @Override
+                    public void write(int b) throws IOException {
+                        super.write(b);
+                        bytesWritten.increment();
+                    }
+
+                    @Override
+                    public void write(byte[] buffer, int offset, int length) throws IOException {
+                        super.write(buffer, offset, length);
+                        bytesWritten.add(length);
+                    }
+                };
+                writer = format.newWriter(new BufferedOutputStream(
+                        Compression.compress(bytes, file, null), BUFFER_SIZE), pretty);
+            }
+            return writer;
+        }
+
+        private void close() throws IOException {
+            open().close();
+            closed = true;
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.emilyfooe;
+
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * How an output is split into shards, e.g. contacts-00001.json, contacts-00002.json,
+ * and the pool the shards are written on. Shards are numbered from 1, and listed with
+ * their contact counts in a manifest next to where the single output would have been.
+ * @author Emily Fooe
+ *
+ */
+public class Sharding {
+    /** Highest shard number that fits the five-digit file names */
+    public static final int MAX_SHARDS = 99999;
+    public static final String MANIFEST_EXTENSION = ".shards.tsv";
+
+    /**
+     * What bounds a shard
+     */
+    public enum Policy {
+        /** Each shard holds up to a number of contacts, in input order */
+        COUNT,
+        /** Each shard takes up to a number of bytes, in input order */
+        SIZE,
+        /**
+         * A fixed number of shards, each contact going to the one its CustomerID hashes to:
+         * the 64-bit FNV-1a hash of its UTF-16 code units, unsigned, modulo the number of shards,
+         * plus one. Contacts without a CustomerID go to the first shard.
+         */
+        HASH;
+
+        public String getName() {
+            return name().toLowerCase();
+        }
+    }
+
+    private final Policy policy;
+    private final long limit;
+    private final ExecutorService writers;
+
+    private Sharding(Policy policy, long limit, ExecutorService writers){
+        this.policy = policy;
+        this.limit = limit;
+        this.writers = writers;
+    }
+
+    /**
+     * Starts a new shard every so many contacts
+     * @param contacts contacts per shard
+     * @param writers pool the shards are written on, one after another
+     */
+    public static Sharding byCount(long contacts, ExecutorService writers){
+        if (contacts < 1){
+            throw new IllegalArgumentException("Shards must hold at least one contact");
+        }
+        return new Sharding(Policy.COUNT, contacts, writers);
+    }
+
+    /**
+     * Starts a new shard before one would exceed a size, unless it holds a single contact
+     * @param bytes upper bound of a shard's size; of the uncompressed data, if gzipped
+     * @param writers pool the shards are serialized on, one after another
+     */
+    public static Sharding bySize(long bytes, ExecutorService writers){
+        if (bytes < 1){
+            throw new IllegalArgumentException("Shards must hold at least one byte");
+        }
+        return new Sharding(Policy.SIZE, bytes, writers);
+    }
+
+    /**
+     * Spreads contacts over a fixed number of shards by CustomerID, written concurrently
+     * @param shards number of shards, all of which are written even if empty
+     * @param writers pool the shards are written on
+     */
+    public static Sharding byHash(int shards, ExecutorService writers){
+        if (shards < 1 || shards > MAX_SHARDS){
+            throw new IllegalArgumentException("Number of shards must be between 1 and " + MAX_SHARDS);
+        }
+        return new Sharding(Policy.HASH, shards, writers);
+    }
+
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Gets the contacts or bytes per shard, or the number of shards when hashing
+     */
+    public long getLimit() {
+        return limit;
+    }
+
+    ExecutorService getWriters() {
+        return writers;
+    }
+
+    /**
+     * Gets the file of a shard, e.g. contacts-00001.json.gz for shard 1 of contacts.json.gz
+     * @param output where the single output would have been
+     * @param format format of the output
+     * @param number shard number, from 1
+     */
+    public static Path shardFile(Path output, ContactFormat format, int number){
+        String name = Compression.baseName(output);
+        String suffix = output.getFileName().toString().substring(name.length());
+        String stem = name.toLowerCase().endsWith(format.getExtension())
+                ? name.substring(0, name.length() - format.getExtension().length()) : name;
+        return output.resolveSibling(String.format("%s-%05d%s%s", stem, number, format.getExtension(), suffix));
+    }
+
+    /**
+     * Gets the manifest kept for a sharded output, e.g. contacts.json.shards.tsv
+     */
+    public static Path manifestFile(Path output){
+        return output.resolveSibling(output.getFileName() + MANIFEST_EXTENSION);
+    }
+
+    @Override
+    public String toString(){
+        return policy.getName() + "=" + limit;
+    }
+}
@@ -0,0 +1,244 @@
+package com.emilyfooe;
+
+import org.xml.sax.SAXException;
+
+import javax.xml.validation.Schema;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Converts address books contact by contact, without building a DOM or
+ * an intermediate Contact[]. Memory use is bounded by the largest contact
+ * rather than the size of the address book.
+ * @author Emily Fooe
+ *
+ */
+public class StreamingConverter {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Copies every contact from reader to writer
+     * @param reader source of contacts
+     * @param writer destination of contacts
+     * @return number of contacts converted
+     */
+    public static long convert(ContactReader reader, ContactWriter writer) throws IOException {
+        return convert(reader, writer, null, ConversionListener.NONE);
+    }
+
+    /**
+     * Copies every contact from reader to writer, reporting progress
+     * @param reader source of contacts
+     * @param writer destination of contacts
+     * @param progress counters to update, or null if nothing is listening
+     * @param listener notified every {@link ConversionListener#PROGRESS_INTERVAL} contacts
+     * @return number of contacts converted
+     */
+    public static long convert(ContactReader reader, ContactWriter writer, ConversionProgress progress,
+                               ConversionListener listener) throws IOException {
+        long count = 0;
+        Contact contact;
+        while ((contact = reader.read()) != null){
+            writer.write(contact);
+            count++;
+            if (progress != null){
+                progress.addContacts(1);
+                if (count % ConversionListener.PROGRESS_INTERVAL == 0){
+                    listener.onProgress(progress);
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Streams an address book into a file of another format
+     * @param input address book to read; its format is taken from the extension
+     * @param output file to write to, replaced if it exists
+     * @param target format to write
+     * @param pretty whether to indent the output
+     * @param schema schema to validate an XML input against in the same pass, or null
+     * @param errors list to collect validation errors in, or null to stop at the first error
+     * @param listener notified of progress, errors and completion
+     * @return number of contacts converted
+     */
+    public static long convertFile(Path input, Path output, ContactFormat target, boolean pretty, Schema schema,
+                                   List<ValidationError> errors, ConversionListener listener) throws IOException, SAXException {
+        return convertFile(input, output, target, pretty, schema, errors, listener, null);
+    }
+
+    /**
+     * Streams an address book into a file of another format. Either file is
+     * gzipped if its name ends in ".gz"; progress is counted in bytes on disk.
+     * @param input address book to read; its format is taken from the extension
+     * @param output file to write to, replaced if it exists
+     * @param target format to write
+     * @param pretty whether to indent the output
+     * @param schema schema to validate an XML input against in the same pass, or null
+     * @param errors list to collect validation errors in, or null to stop at the first error
+     * @param listener notified of progress, errors and completion
+     * @param compressor pool to gzip output blocks on in parallel, or null to compress on this thread
+     * @return number of contacts converted
+     */
+    public static long convertFile(Path input, Path output, ContactFormat target, boolean pretty, Schema schema,
+                                   List<ValidationError> errors, ConversionListener listener,
+                                   ExecutorService compressor) throws IOException, SAXException {
+        return convertFile(input, output, target, pretty, schema, errors, listener, compressor, null, false, null,
+                null);
+    }
+
+    /**
+     * Streams an address book into a file of another format, resolving duplicate CustomerIDs,
+     * writing a {@link ContactLookup} alongside the output or splitting it into shards if asked to.
+     * Either file is gzipped if its name ends in ".gz"; progress is counted in bytes on disk.
+     * @param input address book to read; its format is taken from the extension
+     * @param output file to write to, replaced atomically once complete; a failed conversion
+     *               leaves any earlier output in place
+     * @param target format to write
+     * @param pretty whether to indent the output
+     * @param schema schema to validate an XML input against in the same pass, or null
+     * @param errors list to collect validation errors in, or null to stop at the first error
+     * @param listener notified of progress, errors and completion
+     * @param compressor pool to gzip output blocks on in parallel, or null to compress on this thread
+     * @param deduplicator duplicates found by scanning the input, or null to convert every contact;
+     *                     cannot be combined with a schema
+     * @param index whether to write a lookup of the output; it cannot be gzipped
+     * @param sharding how to split the output into shards written next to it, with a manifest in its
+     *                 place, or null to write a single file; cannot be combined with a lookup
+     * @param digest digest to update with every byte of the input as it is read, or null
+     * @return number of contacts converted
+     */
+    public static long convertFile(Path input, Path output, ContactFormat target, boolean pretty, Schema schema,
+                                   List<ValidationError> errors, ConversionListener listener,
+                                   ExecutorService compressor, Deduplicator deduplicator, boolean index,
+                                   Sharding sharding, MessageDigest digest) throws IOException, SAXException {
+        if (schema != null && deduplicator != null){
+            throw new IllegalArgumentException("Validation cannot be combined with deduplication");
+        }
+        if (index && Compression.isCompressed(output)){
+            throw new IllegalArgumentException("Gzipped outputs cannot be indexed");
+        }
+        if (index && sharding != null){
+            throw new IllegalArgumentException("Sharded outputs cannot be indexed");
+        }
+        ContactLookup.Builder lookup = index ? new ContactLookup.Builder(target, pretty) : null;
+        ContactFormat source = ContactFormat.forFile(input);
+        ConversionProgress progress = null;
+        long contacts;
+        // Written next to the output and renamed over it once complete, so the output is never seen truncated;
+        // it is locked meanwhile, so a concurrent conversion to the same output fails instead of writing over it
+        InputStream raw = MappedInputStream.open(input);
+        try (CountingInputStream in = new CountingInputStream(digest != null ? new DigestInputStream(raw, digest) : raw);
+             ResumableConverter.PartialOutput partial = sharding != null ? null
+                     : ResumableConverter.PartialOutput.open(output, false);
+             CountingOutputStream out = partial == null ? null : new CountingOutputStream(partial.newOutputStream())) {
+            // The partial output of an interrupted run is overwritten, so its checkpoint no longer applies
+            Files.deleteIfExists(ResumableConverter.checkpointFile(output));
+            if (partial != null){
+                partial.getChannel().truncate(0);
+            }
+            ShardedContactWriter shards = sharding != null
+                    ? new ShardedContactWriter(output, target, pretty, sharding) : null;
+            progress = new ConversionProgress(input.getFileName().toString(), Files.size(input), in::getCount,
+                    shards != null ? shards::getBytesWritten : out::getCount);
+            listener.onStart(progress);
+            InputStream decoded = Compression.decompress(in, input);
+            try (ContactWriter writer = shards != null ? shards : openWriter(out, output, target, pretty,
+                    compressor, lookup)) {
+                if (schema != null){
+                    contacts = ValidatingXmlConverter.convert(decoded, input, schema, writer, errors, progress, listener);
+                } else {
+                    ContactReader sourceReader = source.newReader(decoded);
+                    try (ContactReader reader = deduplicator != null
+                            ? deduplicator.filter(sourceReader) : sourceReader) {
+                        contacts = convert(reader, writer, progress, listener);
+                    }
+                }
+            }
+            if (digest != null){
+                // Readers stop after the last contact, but the whole input is hashed
+                ConversionManifest.update(digest, input, in.getCount());
+            }
+            // The delta index of the previous output would no longer match it
+            ContactIndex.delete(output);
+            if (partial != null){
+                partial.moveTo(output);
+            }
+            listener.onFinish(progress);
+        } catch (IOException | SAXException | RuntimeException e) {
+            if (progress != null){
+                listener.onFailure(progress, e);
+            }
+            throw e;
+        }
+        // Saved once the output is closed, as the lookup records its final size
+        if (lookup != null){
+            lookup.save(output);
+        }
+        return contacts;
+    }
+
+    // Opens the single output, recording each contact's position if a lookup is being built
+    private static ContactWriter openWriter(OutputStream out, Path output, ContactFormat target, boolean pretty,
+                                            ExecutorService compressor, ContactLookup.Builder lookup) throws IOException {
+        OutputStream encoded = Compression.compress(out, output, compressor);
+        return lookup != null ? new IndexingContactWriter(encoded, target, pretty, lookup)
+                : target.newWriter(new BufferedOutputStream(encoded, BUFFER_SIZE), pretty);
+    }
+
+    /**
+     * Streams an XML address book into a pretty-printed .json file
+     * @param xmlFile XML address book to read
+     * @param jsonFile .json file to write to
+     * @return number of contacts converted
+     */
+    public static long xmlFileToJsonFile(File xmlFile, File jsonFile) throws IOException {
+        try {
+            return convertFile(xmlFile.toPath(), jsonFile.toPath(), ContactFormat.JSON, true, null, null,
+                    ConversionListener.NONE);
+        } catch (SAXException e) {
+            // Only thrown when validating
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Streams an XML address book into a pretty-printed .json file, validating it in the same pass
+     * @param xmlFile XML address book to read
+     * @param jsonFile .json file to write to
+     * @param schema compiled schema to validate against
+     * @param errors list to collect errors in, or null to stop at the first error
+     * @return number of contacts converted
+     */
+    public static long xmlFileToJsonFile(File xmlFile, File jsonFile, Schema schema,
+                                         List<ValidationError> errors) throws IOException, SAXException {
+        return convertFile(xmlFile.toPath(), jsonFile.toPath(), ContactFormat.JSON, true, schema, errors,
+                ConversionListener.NONE);
+    }
+
+    /**
+     * Streams a JSON address book into an .xml file
+     * @param jsonFile JSON address book to read
+     * @param xmlFile .xml file to write to
+     * @param pretty whether to indent the XML output
+     * @return number of contacts converted
+     */
+    public static long jsonFileToXmlFile(File jsonFile, File xmlFile, boolean pretty) throws IOException {
+        try {
+            return convertFile(jsonFile.toPath(), xmlFile.toPath(), ContactFormat.XML, pretty, null, null,
+                    ConversionListener.NONE);
+        } catch (SAXException e) {
+            // Only thrown when validating
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.emilyfooe;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.xml.validation.Schema;
+import javax.xml.validation.ValidatorHandler;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Converts an XML address book while validating it against a schema, so
+ * validation and conversion share a single parse.
+ * SAX events pass through a ValidatorHandler before reaching the handler that
+ * assembles contacts, and each contact is written once its end tag has been validated.
+ * @author Emily Fooe
+ *
+ */
+public class ValidatingXmlConverter {
+    /**
+     * Converts an XML address book, validating it as it is read
+     * @param input XML address book
+     * @param file path of the address book, used in error reports
+     * @param schema compiled schema to validate against
+     * @param writer destination of contacts
+     * @param errors list to collect errors in, or null to stop at the first error
+     * @return number of contacts converted
+     * @throws SAXParseException in fail-fast mode, describing the first error
+     */
+    public static long convert(InputStream input, Path file, Schema schema, ContactWriter writer,
+                               List<ValidationError> errors) throws IOException, SAXException {
+        return convert(input, file, schema, writer, errors, null, ConversionListener.NONE);
+    }
+
+    /**
+     * Converts an XML address book, validating it as it is read and reporting progress
+     * @param progress counters to update, or null if nothing is listening
+     * @param listener notified of progress and of each collected error
+     * @see #convert(InputStream, Path, Schema, ContactWriter, List)
+     */
+    public static long convert(InputStream input, Path file, Schema schema, ContactWriter writer,
+                               List<ValidationError> errors, ConversionProgress progress,
+                               ConversionListener listener) throws IOException, SAXException {
+        ContactHandler contacts = new ContactHandler(writer, progress, listener);
+        ErrorHandler errorHandler = new ReportingErrorHandler(file, errors, progress, listener);
+        ConversionContext context = ConversionContext.getDefault();
+        ValidatorHandler validator = context.getValidatorHandler(schema);
+        validator.setContentHandler(contacts);
+        validator.setErrorHandler(errorHandler);
+
+        XMLReader reader = context.getXmlReader();
+        reader.setContentHandler(validator);
+        reader.setErrorHandler(errorHandler);
+        InputSource source = new InputSource(input);
+        source.setSystemId(file.toUri().toString());
+        try {
+            reader.parse(source);
+        } catch (WriteException e) {
+            throw e.getCause();
+        } catch (SAXParseException e) {
+            // In collecting mode, a fatal error has already been recorded
+            if (errors == null){
+                throw e;
+            }
+        }
+        return contacts.count;
+    }
+
+    // Assembles contacts from validated SAX events and writes each one as it completes
+    private static class ContactHandler extends DefaultHandler {
+        private final ContactWriter writer;
+        private final ConversionProgress progress;
+        private final ConversionListener listener;
+        private final StringBuilder text = new StringBuilder();
+        private String[] fields;
+        private long count;
+
+        private ContactHandler(ContactWriter writer, ConversionProgress progress, ConversionListener listener){
+            this.writer = writer;
+            this.progress = progress;
+            this.listener = listener;
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) {
+            if (ContactHelper.CONTACT.equals(localName)){
+                fields = new String[ContactField.COUNT];
+            }
+            text.setLength(0);
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            if (fields != null){
+                text.append(ch, start, length);
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) throws SAXException {
+            if (fields == null){
+                return;
+            }
+            if (ContactHelper.CONTACT.equals(localName)){
+                try {
+                    writer.write(ContactField.toContact(fields));
+                } catch (IOException e) {
+                    throw new WriteException(e);
+                }
+                count++;
+                fields = null;
+                if (progress != null){
+                    progress.addContacts(1);
+                    if (count % ConversionListener.PROGRESS_INTERVAL == 0){
+                        listener.onProgress(progress);
+                    }
+                }
+                return;
+            }
+            ContactField field = ContactField.forTag(localName);
+            if (field != null){
+                fields[field.ordinal()] = text.toString();
+            }
+        }
+    }
+
+    // Either aborts on the first error or records every error and carries on
+    private static class ReportingErrorHandler implements ErrorHandler {
+        private final Path file;
+        private final List<ValidationError> errors;
+        private final ConversionProgress progress;
+        private final ConversionListener listener;
+
+        private ReportingErrorHandler(Path file, List<ValidationError> errors, ConversionProgress progress,
+                                      ConversionListener listener){
+            this.file = file;
+            this.errors = errors;
+            this.progress = progress;
+            this.listener = listener;
+        }
+
+        @Override
+        public void warning(SAXParseException exception) {
+            // Warnings do not make a document invalid
+        }
+
+        @Override
+        public void error(SAXParseException exception) throws SAXException {
+            if (errors == null){
+                throw exception;
+            }
+            errors.add(new ValidationError(file, exception));
+            if (progress != null){
+                progress.addError();
+                listener.onError(progress, exception);
+            }
+        }
+
+        @Override
+        public void fatalError(SAXParseException exception) throws SAXException {
+            if (errors != null){
+                errors.add(new ValidationError(file, exception));
+            }
+            throw exception;
+        }
+    }
+
+    // Carries a ContactWriter failure out through the SAX parser
+    private static class WriteException extends SAXException {
+        private static final long serialVersionUID = 1L;
+
+        private WriteException(IOException cause){
+            super(cause);
+        }
+
+        @Override
+        public synchronized IOException getCause() {
+            return (IOException) super.getCause();
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.emilyfooe;
+
+import org.xml.sax.SAXParseException;
+
+import java.nio.file.Path;
+
+/**
+ * A schema violation or parse error found in an address book.
+ * @author Emily Fooe
+ *
+ */
+public class ValidationError {
+    private final Path file;
+    private final int line;
+    private final int column;
+    private final String message;
+
+    public ValidationError(Path file, int line, int column, String message){
+        this.file = file;
+        this.line = line;
+        this.column = column;
+        this.message = message;
+    }
+
+    public ValidationError(Path file, SAXParseException e){
+        this(file, e.getLineNumber(), e.getColumnNumber(), e.getMessage());
+    }
+
+    //region Getters
+    public Path getFile() {
+        return file;
+    }
+
+    public int getLine() {
+        return line;
+    }
+
+    public int getColumn() {
+        return column;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+    //endregion
+
+    @Override
+    public String toString(){
+        return file.getFileName() + ":" + line + ":" + column + ": " + message;
+    }
+}
@@ -0,0 +1,93 @@
+package com.emilyfooe;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Pulls contacts out of an XML address book with a StAX parser.
+ * Only the current &lt;Contact&gt; element is materialized, so memory use
+ * does not depend on the size of the address book.
+ * @author Emily Fooe
+ *
+ */
+public class XmlContactReader implements ContactReader {
+    private final InputStream input;
+    private final XMLStreamReader reader;
+    private final FieldInterner interner;
+
+    public XmlContactReader(InputStream input) throws IOException {
+        this(input, FieldInterner.NONE);
+    }
+
+    /**
+     * @param input stream to read from
+     * @param interner shares repeated field values between the contacts read
+     */
+    public XmlContactReader(InputStream input, FieldInterner interner) throws IOException {
+        this.input = input;
+        this.interner = interner;
+        try {
+            reader = ConversionContext.getDefault().getXmlInputFactory().createXMLStreamReader(input);
+        } catch (XMLStreamException e) {
+            throw new IOException("Unable to read address book: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public Contact read() throws IOException {
+        try {
+            while (reader.hasNext()){
+                if (reader.next() == XMLStreamConstants.START_ELEMENT
+                        && ContactHelper.CONTACT.equals(reader.getLocalName())){
+                    return readContact();
+                }
+            }
+            return null;
+        } catch (XMLStreamException e) {
+            throw new IOException("Malformed address book: " + e.getMessage(), e);
+        }
+    }
+
+    // Reads the children of the current <Contact> element, leaving the cursor on </Contact>
+    private Contact readContact() throws XMLStreamException {
+        String[] values = new String[ContactField.COUNT];
+        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT){
+            ContactField field = ContactField.forTag(reader.getLocalName());
+            if (field != null){
+                values[field.ordinal()] = reader.getElementText();
+            } else {
+                // Unknown elements are ignored, as in xmlNodeToContact, whatever they contain
+                skipElement();
+            }
+        }
+        interner.internAll(values);
+        return ContactField.toContact(values);
+    }
+
+    // Skips the current element and its descendants, leaving the cursor on its end tag
+    private void skipElement() throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0){
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT){
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT){
+                depth--;
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            reader.close();
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        } finally {
+            input.close();
+        }
+    }
+}
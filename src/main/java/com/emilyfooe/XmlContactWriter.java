@@ -0,0 +1,155 @@
+package com.emilyfooe;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Writes contacts as an XML address book with a StAX writer.
+ * Each &lt;Contact&gt; is emitted as soon as it is written, so no DOM is built.
+ * Pretty-printing indents by two spaces, matching the Transformer output.
+ * A writer may also produce a fragment of a larger document, so that separately
+ * written parts can be concatenated into one address book.
+ * @author Emily Fooe
+ *
+ */
+public class XmlContactWriter implements ContactWriter {
+    private static final String ENCODING = "UTF-8";
+    // Line breaks for the root, <Contact> and field nesting depths
+    private static final String[] INDENTS = {"\n", "\n  ", "\n    "};
+
+    private final OutputStream output;
+    private final XMLStreamWriter writer;
+    private final boolean pretty;
+    private final boolean opensDocument;
+    private final boolean closesDocument;
+
+    public XmlContactWriter(OutputStream output, boolean pretty) throws IOException {
+        this(output, pretty, true, true);
+    }
+
+    /**
+     * Creates a writer for part of an address book
+     * @param output stream to write to
+     * @param pretty whether to indent the XML output
+     * @param opensDocument whether this part writes the prolog and &lt;AddressBook&gt;
+     * @param closesDocument whether this part writes &lt;/AddressBook&gt;
+     */
+    public XmlContactWriter(OutputStream output, boolean pretty, boolean opensDocument,
+                            boolean closesDocument) throws IOException {
+        this.output = output;
+        this.pretty = pretty;
+        this.opensDocument = opensDocument;
+        this.closesDocument = closesDocument;
+        try {
+            writer = ConversionContext.getDefault().getXmlOutputFactory().createXMLStreamWriter(output, ENCODING);
+            if (opensDocument){
+                writer.writeStartDocument(ENCODING, "1.0");
+                newline(0);
+                writer.writeStartElement(ContactHelper.ADDRESS_BOOK);
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException("Unable to write address book: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void write(Contact contact) throws IOException {
+        try {
+            newline(1);
+            writer.writeStartElement(ContactHelper.CONTACT);
+            for (ContactField field : ContactField.FIELDS){
+                writeField(field, field.get(contact));
+            }
+            newline(1);
+            writer.writeEndElement();
+        } catch (XMLStreamException e) {
+            throw new IOException("Unable to write contact: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void writeSerialized(byte[] contact) throws IOException {
+        try {
+            // Also completes a pending start tag when not pretty-printing
+            writer.writeCharacters(pretty ? INDENTS[1] : "");
+            writer.flush();
+            output.write(contact);
+        } catch (XMLStreamException e) {
+            throw new IOException("Unable to write contact: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        try {
+            writer.flush();
+        } catch (XMLStreamException e) {
+            throw new IOException("Unable to write address book: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Serializes a contact as it appears inside &lt;AddressBook&gt;, without the line break before it
+     * @param pretty whether to indent it as a pretty-printed contact
+     */
+    public static byte[] serialize(Contact contact, boolean pretty) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(512);
+        XmlContactWriter element = new XmlContactWriter(buffer, pretty, false, false);
+        element.write(contact);
+        element.flush();
+        byte[] bytes = buffer.toByteArray();
+        int indent = pretty ? INDENTS[1].length() : 0;
+        return Arrays.copyOfRange(bytes, indent, bytes.length);
+    }
+
+    // Optional fields are omitted when missing, required ones are written empty
+    private void writeField(ContactField field, String value) throws XMLStreamException {
+        if (value == null && field.isOptional()){
+            return;
+        }
+        newline(2);
+        writer.writeStartElement(field.getTag());
+        writer.writeCharacters(value == null ? "" : value);
+        writer.writeEndElement();
+    }
+
+    // Starts a new line at the given nesting depth when pretty-printing
+    private void newline(int depth) throws XMLStreamException {
+        if (!pretty){
+            return;
+        }
+        writer.writeCharacters(INDENTS[depth]);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (closesDocument){
+                newline(0);
+                if (opensDocument){
+                    writer.writeEndElement();
+                    writer.writeEndDocument();
+                }
+                writer.flush();
+                if (!opensDocument){
+                    // The writer never saw <AddressBook>, so it cannot close it
+                    output.write(("</" + ContactHelper.ADDRESS_BOOK + ">").getBytes(StandardCharsets.UTF_8));
+                }
+                if (pretty){
+                    output.write('\n');
+                }
+            }
+            writer.close();
+        } catch (XMLStreamException e) {
+            throw new IOException("Unable to write address book: " + e.getMessage(), e);
+        } finally {
+            // XMLStreamWriter.close leaves the underlying stream open
+            output.close();
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.emilyfooe;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Reads back binary address books, whole and damaged in the ways a file on disk can be:
+ * cut short, with flipped bits, or with blocks whose checksum holds but whose contacts do not.
+ * @author Emily Fooe
+ *
+ */
+class BinaryContactReaderTest {
+    private static final String[] VALUES = {
+            "", "Alfreds Futterkiste", "Zoë Ångström", "東京都 新宿区", "emoji 📞", "line\nbreak", "tab\there",
+    };
+
+    @Test
+    void roundTripKeepsEveryField() throws IOException {
+        List<String[]> contacts = contacts(5_000);
+        // Longer than one varint byte, and than a block
+        String[] long_ = contacts.get(1);
+        long_[ContactField.ADDRESS.ordinal()] = repeat('a', 200);
+        long_[ContactField.COMPANY_NAME.ordinal()] = repeat('b', BinaryContactWriter.BLOCK_SIZE * 2);
+        byte[] book = write(contacts);
+
+        List<String[]> read = read(book);
+        assertEquals(contacts.size(), read.size());
+        for (int i = 0; i < contacts.size(); i++){
+            assertArrayEquals(contacts.get(i), read.get(i), "contact " + i);
+            Contact contact = ContactField.toContact(contacts.get(i));
+            assertArrayEquals(contacts.get(i),
+                    values(BinaryContactReader.deserialize(BinaryContactWriter.serialize(contact))));
+        }
+    }
+
+    @Test
+    void truncatedBooksFail() throws IOException {
+        byte[] book = write(contacts(3_000));
+        for (int length = 0; length < book.length; length += length < 256 ? 1 : 251){
+            byte[] truncated = Arrays.copyOf(book, length);
+            assertThrows(IOException.class, () -> read(truncated), "truncated to " + length);
+        }
+        for (int length = book.length - 16; length < book.length; length++){
+            byte[] truncated = Arrays.copyOf(book, length);
+            assertThrows(IOException.class, () -> read(truncated), "truncated to " + length);
+        }
+    }
+
+    @Test
+    void checksumMismatchFails() throws IOException {
+        byte[] book = write(contacts(3_000));
+        // A byte inside the first block's contacts
+        book[BinaryContactWriter.HEADER_SIZE + 8 + 100] ^= 0x20;
+        IOException e = assertThrows(IOException.class, () -> read(book));
+        assertTrue(e.getMessage().contains("checksum mismatch in block 1"), e.getMessage());
+    }
+
+    @Test
+    void contactsOverrunningTheirBlockFail(){
+        byte[][] packed = {
+                // No room for the presence bits
+                {0},
+                // CustomerID present, but its length runs past the block
+                {0, 1, 5, 'a', 'b'},
+                // A length that is never terminated
+                {0, 1, (byte) 0x81, (byte) 0x82},
+                // A length too long for an int
+                {0, 1, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x01},
+                // A length that overflows to a negative int
+                {0, 1, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F, 'a'},
+        };
+        for (byte[] contact : packed){
+            IOException e = assertThrows(IOException.class, () -> read(block(1, contact)), Arrays.toString(contact));
+            assertTrue(e.getMessage().contains("overrun block 1"), e.getMessage());
+            assertThrows(IOException.class, () -> BinaryContactReader.deserialize(contact), Arrays.toString(contact));
+        }
+        // Fewer contacts than the block holds bytes for
+        IOException e = assertThrows(IOException.class, () -> read(block(1, new byte[]{0, 1, 1, 'a', 0, 0})));
+        assertTrue(e.getMessage().contains("trailing bytes in block 1"), e.getMessage());
+    }
+
+    private static List<String[]> contacts(int count){
+        List<String[]> contacts = new ArrayList<>();
+        for (int i = 0; i < count; i++){
+            String[] values = new String[ContactField.COUNT];
+            values[ContactField.CUSTOMER_ID.ordinal()] = "C" + i;
+            for (int field = 1; field < ContactField.COUNT; field++){
+                // Every few fields missing, to tell them from empty ones
+                int pick = (i + field) % (VALUES.length + 1);
+                values[field] = pick == VALUES.length ? null : VALUES[pick];
+            }
+            contacts.add(values);
+        }
+        return contacts;
+    }
+
+    private static byte[] write(List<String[]> contacts) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (BinaryContactWriter writer = new BinaryContactWriter(bytes)) {
+            for (String[] values : contacts){
+                writer.write(ContactField.toContact(values));
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static List<String[]> read(byte[] book) throws IOException {
+        List<String[]> contacts = new ArrayList<>();
+        try (BinaryContactReader reader = new BinaryContactReader(new ByteArrayInputStream(book))) {
+            Contact contact;
+            while ((contact = reader.read()) != null){
+                contacts.add(values(contact));
+            }
+        }
+        return contacts;
+    }
+
+    private static String[] values(Contact contact){
+        String[] values = new String[ContactField.COUNT];
+        for (ContactField field : ContactField.FIELDS){
+            values[field.ordinal()] = field.get(contact);
+        }
+        return values;
+    }
+
+    // A book of one block with a correct checksum around the given bytes, then the closing block
+    private static byte[] block(int count, byte[] contacts){
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        writeInt(bytes, BinaryContactWriter.MAGIC);
+        bytes.write(BinaryContactWriter.VERSION);
+        bytes.write(0);
+        writeInt(bytes, count);
+        writeInt(bytes, contacts.length);
+        bytes.write(contacts, 0, contacts.length);
+        CRC32 crc = new CRC32();
+        crc.update(contacts, 0, contacts.length);
+        writeInt(bytes, (int) crc.getValue());
+        bytes.write(new byte[12], 0, 12);
+        return bytes.toByteArray();
+    }
+
+    private static void writeInt(ByteArrayOutputStream bytes, int value){
+        bytes.write(value >>> 24);
+        bytes.write(value >>> 16);
+        bytes.write(value >>> 8);
+        bytes.write(value);
+    }
+
+    private static String repeat(char c, int count){
+        char[] chars = new char[count];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+}
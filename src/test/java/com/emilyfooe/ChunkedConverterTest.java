@@ -0,0 +1,189 @@
+package com.emilyfooe;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.xml.sax.SAXException;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Splits address books whose contacts hold markup-like text in every place the boundary
+ * scans could be fooled, and checks that the ranges read back as the unsplit book.
+ * @author Emily Fooe
+ *
+ */
+class ChunkedConverterTest {
+    // Values that look like contact boundaries or string ends to a byte scanner
+    private static final String[] TRICKY = {
+            "<Contact>", "</Contact>", "{\"customerId\":\"X\"}", "}, {", "[{", "\"quoted\"", "back\\slash\\",
+            "ends in backslash quote \\\"", "Zoë Ångström", "東京都 新宿区", "emoji 📞", "a > b & c < d",
+            "line\nbreak", "]]>", "-->", "?>",
+    };
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void xmlBoundariesSkipCdataCommentsAndInstructions() throws IOException {
+        StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+                .append("<!-- <Contact><CustomerID>COMMENT</CustomerID></Contact> -->\n")
+                .append("<AddressBook>\n");
+        for (int i = 0; i < 200; i++){
+            xml.append("  <!-- before <Contact> ").append(i).append(" -->\n")
+                    .append("  <Contact note=\"a > b\" other='/>'>\n")
+                    .append("    <CustomerID>C").append(i).append("</CustomerID>\n")
+                    .append("    <CompanyName><![CDATA[</Contact><Contact>]]>").append(i).append("</CompanyName>\n")
+                    .append("    <ContactName>").append(escapeXml(TRICKY[i % TRICKY.length])).append("</ContactName>\n")
+                    .append("    <?pi <Contact> ?>\n")
+                    .append("    <City>").append(escapeXml(TRICKY[(i + 7) % TRICKY.length])).append("</City>\n")
+                    .append("  </Contact>\n");
+        }
+        xml.append("  <Contact/>\n</AddressBook>\n<!-- </Contact> -->\n");
+        Path book = write("book.xml", xml.toString());
+
+        List<String> whole = readWhole(book);
+        assertEquals(201, whole.size());
+        try (ContactReader reader = ContactFormat.XML.newReader(Files.newInputStream(book))) {
+            assertEquals("</Contact><Contact>0", reader.read().getCompanyName());
+        }
+        assertSplitsMatch(book, whole);
+    }
+
+    @Test
+    void jsonBoundariesSkipStringsAndEscapes() throws IOException {
+        Path book = directory.resolve("book.json");
+        writeBook(book, ContactFormat.JSON, true, 300);
+        assertSplitsMatch(book, readWhole(book));
+
+        Path compact = directory.resolve("compact.json");
+        writeBook(compact, ContactFormat.JSON, false, 300);
+        assertSplitsMatch(compact, readWhole(compact));
+    }
+
+    @Test
+    void ndjsonBoundariesFallOnLineBreaks() throws IOException {
+        Path book = directory.resolve("book.ndjson");
+        writeBook(book, ContactFormat.NDJSON, false, 300);
+        assertSplitsMatch(book, readWhole(book));
+    }
+
+    @Test
+    void truncatedBooksFailInsteadOfLosingTheirLastContact() throws IOException {
+        Path json = directory.resolve("book.json");
+        writeBook(json, ContactFormat.JSON, true, 50);
+        byte[] bytes = Files.readAllBytes(json);
+        Path truncatedJson = write("truncated.json", new String(bytes, 0, bytes.length - 40, StandardCharsets.UTF_8));
+        assertThrows(IOException.class, () -> readSplit(truncatedJson, 4));
+
+        Path xml = directory.resolve("book.xml");
+        writeBook(xml, ContactFormat.XML, true, 50);
+        bytes = Files.readAllBytes(xml);
+        Path truncatedXml = write("truncated.xml", new String(bytes, 0, bytes.length - 60, StandardCharsets.UTF_8));
+        assertThrows(IOException.class, () -> readSplit(truncatedXml, 4));
+    }
+
+    @Test
+    void splitConversionMatchesSequentialConversion() throws IOException, SAXException {
+        // Large enough for the pool's threads to each get a chunk
+        Path xml = directory.resolve("large.xml");
+        writeBook(xml, ContactFormat.XML, true, 100_000);
+        Path json = directory.resolve("large.json");
+        writeBook(json, ContactFormat.JSON, true, 100_000);
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (Path input : Arrays.asList(xml, json)){
+                ContactFormat target = input == xml ? ContactFormat.JSON : ContactFormat.XML;
+                Path split = directory.resolve("split" + target.getExtension());
+                Path sequential = directory.resolve("sequential" + target.getExtension());
+                assertEquals(100_000, ChunkedConverter.convert(input, split, target, true, pool,
+                        ConversionListener.NONE));
+                StreamingConverter.convertFile(input, sequential, target, true, null, null, ConversionListener.NONE);
+                assertArrayEquals(Files.readAllBytes(sequential), Files.readAllBytes(split));
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // Every way of splitting the book must yield its contacts, in order
+    private static void assertSplitsMatch(Path book, List<String> whole) throws IOException {
+        boolean split = false;
+        for (int chunks = 1; chunks <= 64; chunks++){
+            assertEquals(whole, readSplit(book, chunks), "split into " + chunks);
+            try (FileChannel channel = FileChannel.open(book, StandardOpenOption.READ)) {
+                split |= ChunkedConverter.split(channel, ContactFormat.forFile(book), chunks).size() > 1;
+            }
+        }
+        assertTrue(split, "never split");
+    }
+
+    private static List<String> readSplit(Path book, int chunks) throws IOException {
+        List<String> contacts = new ArrayList<>();
+        ContactFormat format = ContactFormat.forFile(book);
+        try (FileChannel channel = FileChannel.open(book, StandardOpenOption.READ)) {
+            List<ChunkedConverter.Range> ranges = ChunkedConverter.split(channel, format, chunks);
+            ChunkedConverter.checkOutside(channel, format, ranges);
+            for (ChunkedConverter.Range range : ranges){
+                try (ContactReader reader = format.newReader(range.open(channel))) {
+                    addAll(reader, contacts);
+                }
+            }
+        }
+        return contacts;
+    }
+
+    private static List<String> readWhole(Path book) throws IOException {
+        List<String> contacts = new ArrayList<>();
+        try (ContactReader reader = ContactFormat.forFile(book).newReader(Files.newInputStream(book))) {
+            addAll(reader, contacts);
+        }
+        return contacts;
+    }
+
+    // Contacts are compared by their compact JSON form
+    private static void addAll(ContactReader reader, List<String> contacts) throws IOException {
+        Contact contact;
+        while ((contact = reader.read()) != null){
+            contacts.add(new String(ContactFormat.JSON.serialize(contact, false), StandardCharsets.UTF_8));
+        }
+    }
+
+    private static void writeBook(Path file, ContactFormat format, boolean pretty, int contacts) throws IOException {
+        try (ContactWriter writer = format.newWriter(new BufferedOutputStream(Files.newOutputStream(file)), pretty)) {
+            for (int i = 0; i < contacts; i++){
+                String[] values = new String[ContactField.COUNT];
+                values[ContactField.CUSTOMER_ID.ordinal()] = "C" + i;
+                for (int field = 1; field < ContactField.COUNT; field++){
+                    values[field] = TRICKY[(i + field) % TRICKY.length];
+                }
+                writer.write(ContactField.toContact(values));
+            }
+        }
+    }
+
+    private Path write(String name, String content) throws IOException {
+        Path file = directory.resolve(name);
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private static String escapeXml(String value){
+        return value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+}
@@ -0,0 +1,155 @@
+package com.emilyfooe;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Posts address books to a server on an ephemeral port, checking that no endpoint
+ * resolves entities declared in the request.
+ * @author Emily Fooe
+ *
+ */
+class ConversionServerTest {
+    private static final String SECRET = "not-for-clients";
+    private static final String SCHEMA = "<xs:schema xmlns:xs=\"http://www.w3.org/2001/XMLSchema\">\n"
+            + "  <xs:element name=\"AddressBook\"><xs:complexType><xs:sequence>\n"
+            + "    <xs:element name=\"Contact\" minOccurs=\"0\" maxOccurs=\"unbounded\"><xs:complexType><xs:sequence>\n"
+            + "      <xs:element name=\"CustomerID\" type=\"xs:string\"/>\n"
+            + "      <xs:element name=\"CompanyName\" type=\"xs:string\"/>\n"
+            + "    </xs:sequence></xs:complexType></xs:element>\n"
+            + "  </xs:sequence></xs:complexType></xs:element>\n"
+            + "</xs:schema>\n";
+
+    @TempDir
+    Path directory;
+
+    private ConversionServer server;
+    private String book;
+
+    @BeforeEach
+    void start() throws IOException {
+        Path secret = directory.resolve("secret.txt");
+        Files.write(secret, SECRET.getBytes(StandardCharsets.UTF_8));
+        Files.write(directory.resolve("contact.xsd"), SCHEMA.getBytes(StandardCharsets.UTF_8));
+        book = "<?xml version=\"1.0\"?>\n"
+                + "<!DOCTYPE AddressBook [<!ENTITY s SYSTEM \"" + secret.toUri() + "\">]>\n"
+                + "<AddressBook><Contact><CustomerID>A</CustomerID><CompanyName>&s;</CompanyName></Contact></AddressBook>\n";
+        server = new ConversionServer(new InetSocketAddress("127.0.0.1", 0), 2, 4, directory, "contact.xsd");
+        server.start();
+    }
+
+    @AfterEach
+    void stop(){
+        server.stop(0);
+    }
+
+    @Test
+    void plainConversionConvertsWellFormedBooks() throws IOException {
+        String plain = "<AddressBook><Contact><CustomerID>A</CustomerID><CompanyName>Alfreds Futterkiste</CompanyName>"
+                + "</Contact></AddressBook>";
+        for (String query : new String[]{"from=xml&to=json&compact", "from=xml&to=json&compact&validate"}){
+            Answer answer = post("/convert?" + query, plain);
+            assertEquals(200, answer.status, query + ": " + answer.body);
+            assertTrue(answer.body.contains("Alfreds Futterkiste"), answer.body);
+        }
+    }
+
+    @Test
+    void failedConversionsAreReportedRatherThanCompleted() throws IOException {
+        String truncated = "<AddressBook><Contact><CustomerID>A</CustomerID><CompanyName>Alfreds";
+        for (String encoding : new String[]{"identity", "gzip"}){
+            Answer answer = post("/convert?from=xml&to=json&compact", truncated, encoding);
+            assertEquals(400, answer.status, encoding + ": " + answer.body);
+            assertTrue(answer.body.startsWith("Malformed address book"), answer.body);
+        }
+    }
+
+    @Test
+    void failuresAfterTheResponseStartedCutItShort() throws IOException {
+        StringBuilder contacts = new StringBuilder("<AddressBook>");
+        for (int i = 0; i < 5_000; i++){
+            contacts.append("<Contact><CustomerID>C").append(i)
+                    .append("</CustomerID><CompanyName>Alfreds Futterkiste</CompanyName></Contact>");
+        }
+        // Each line of NDJSON is a whole contact, so only the failed read tells a truncated body apart
+        Answer answer = post("/convert?from=xml&to=ndjson", contacts + "</AddressBook>");
+        assertEquals(200, answer.status, answer.body);
+        assertEquals(5_000, answer.body.split("\n").length);
+        String malformed = contacts + "<Contact><CustomerID>C</CompanyName></Contact></AddressBook>";
+        assertThrows(IOException.class, () -> post("/convert?from=xml&to=ndjson", malformed));
+    }
+
+    @Test
+    void conversionRefusesExternalEntities() throws IOException {
+        assertRefused(post("/convert?from=xml&to=json&compact", book));
+    }
+
+    @Test
+    void validatingConversionRefusesExternalEntities() throws IOException {
+        assertRefused(post("/convert?from=xml&to=json&compact&validate", book));
+    }
+
+    @Test
+    void validationRefusesExternalEntities() throws IOException {
+        // Twice, as each worker's validator is reused
+        assertRefused(post("/validate", book));
+        assertRefused(post("/validate", book));
+    }
+
+    private static void assertRefused(Answer answer){
+        assertFalse(answer.body.contains(SECRET), answer.body);
+        assertTrue(answer.status == 400 || answer.status == 422, answer.status + ": " + answer.body);
+    }
+
+    private Answer post(String path, String body) throws IOException {
+        return post(path, body, "identity");
+    }
+
+    private Answer post(String path, String body, String acceptEncoding) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + server.getPort() + path)
+                .openConnection();
+        connection.setRequestMethod("POST");
+        connection.setRequestProperty("Accept-Encoding", acceptEncoding);
+        connection.setDoOutput(true);
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(body.getBytes(StandardCharsets.UTF_8));
+        }
+        Answer answer = new Answer();
+        answer.status = connection.getResponseCode();
+        try (InputStream in = answer.status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while (in != null && (read = in.read(buffer)) > 0){
+                bytes.write(buffer, 0, read);
+            }
+            answer.body = new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+        } finally {
+            connection.disconnect();
+        }
+        return answer;
+    }
+
+    private static class Answer {
+        private int status;
+        private String body;
+    }
+}